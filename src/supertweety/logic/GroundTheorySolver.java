@@ -21,6 +21,7 @@ import org.sat4j.minisat.SolverFactory;
 import org.sat4j.specs.ContradictionException;
 import org.sat4j.specs.IProblem;
 import org.sat4j.specs.ISolver;
+import org.sat4j.specs.IVecInt;
 import org.sat4j.specs.TimeoutException;
 
 import java.math.BigInteger;
@@ -45,12 +46,24 @@ public class GroundTheorySolver {
 
     private ValueToIndex<Literal> literalsToIndices = new ValueToIndex<Literal>(1);
 
+    //the same indices as in literalsToIndices, used for lookups which must not add new literals
+    private Map<Literal,Integer> indices = new HashMap<Literal,Integer>();
+
     private int optimizationTimeout = Integer.MAX_VALUE;
 
     private ISolver solver;
 
+    //number of variables known to the solver
+    private int solverVariables;
+
+    //set when the hard clauses turn out to be contradictory, the solver then cannot be used anymore
+    private boolean contradiction = false;
+
     private WeightedMaxSatDecorator optimizer;
 
+    //assumptions responsible for the last unsuccessful call of solve(Collection)
+    private Set<Literal> unsatExplanation;
+
     public GroundTheorySolver(Collection<Clause> hardProgram){
         this(hardProgram, null);
     }
@@ -59,7 +72,7 @@ public class GroundTheorySolver {
         if (softProgram != null) {
             for (Pair<Clause, BigInteger> c : softProgram) {
                 for (Literal literal : c.r.literals()) {
-                    literalsToIndices.valueToIndex(literal);
+                    this.index(literal);
                 }
                 if (c.s == null) {
                     this.hardProgram.add(c.r);
@@ -71,7 +84,7 @@ public class GroundTheorySolver {
         this.softDimacsClauses = this.toSoftDimacsClauses(this.softProgram);
         for (Clause c : hardProgram){
             for (Literal literal : c.literals()){
-                literalsToIndices.valueToIndex(literal);
+                this.index(literal);
             }
             this.hardProgram.add(c);
         }
@@ -88,11 +101,23 @@ public class GroundTheorySolver {
     }
 
     public Set<Literal> solve(){
+        return this.solve(Collections.<Literal>emptyList());
+    }
+
+    /**
+     * Solves the theory under the given assumptions. The assumptions are not added to the theory, so the solver
+     * can be reused for many queries. Literals whose variables do not appear in the theory are only added to the model.
+     * @param assumptions
+     * @return a model or null if there is none
+     */
+    public Set<Literal> solve(Collection<Literal> assumptions){
+        this.unsatExplanation = null;
         try {
             if (this.solver == null) {
                 this.solver = SolverFactory.newDefault();
                 //this.solver = SolverFactory.newMiniLearningHeap();
-                this.solver.newVar(this.literalsToIndices.size());
+                this.solverVariables = this.literalsToIndices.size();
+                this.solver.newVar(this.solverVariables);
                 this.solver.setExpectedNumberOfClauses(softProgram.size());
                 for (int[] clause : hardDimacsClauses) {
                     //System.out.println("hard dimacs clause: "+VectorUtils.intArrayToString(clause));
@@ -100,10 +125,15 @@ public class GroundTheorySolver {
                         this.solver.addClause(new VecInt(clause));
                     } catch (ContradictionException ce) {
                         //no solution
-                        return null;
+                        this.contradiction = true;
+                        break;
                     }
                 }
             }
+            if (this.contradiction){
+                this.unsatExplanation = new HashSet<Literal>();
+                return null;
+            }
             for (Clause newHardClause : this.newHardClauses_forSolver) {
                 this.hardProgram.add(newHardClause);
                 this.hardDimacsClauses.add(this.toHardDimacsClause(newHardClause));
@@ -116,11 +146,32 @@ public class GroundTheorySolver {
                 }
             } catch (ContradictionException ce){
                 this.newHardClauses_forSolver.clear();
+                this.contradiction = true;
+                this.unsatExplanation = new HashSet<Literal>();
                 return null;
             }
             this.newHardClauses_forSolver.clear();
+            VecInt assumps = new VecInt();
+            Set<Literal> outsideOfTheory = new HashSet<Literal>();
+            Map<Integer,Literal> assumptionsByVariables = new HashMap<Integer,Literal>();
+            for (Literal assumption : assumptions){
+                //only looked up, literals outside of the theory must not be added to the index
+                Integer index = this.indices.get(assumption.isNegated() ? assumption.negation() : assumption);
+                if (index == null || index > this.solverVariables){
+                    if (assumptions.contains(assumption.negation())){
+                        this.unsatExplanation = Sugar.<Literal>set(assumption, assumption.negation());
+                        return null;
+                    }
+                    if (!assumption.isNegated()){
+                        outsideOfTheory.add(assumption);
+                    }
+                } else {
+                    assumps.push(assumption.isNegated() ? -index : index);
+                    assumptionsByVariables.put(index, assumption);
+                }
+            }
             IProblem problem = this.solver;
-            if (problem.isSatisfiable()) {
+            if (problem.isSatisfiable(assumps)) {
                 int[] model = problem.model();
                 Set<Literal> solution = new HashSet<Literal>();
                 for (int i : model){
@@ -128,8 +179,20 @@ public class GroundTheorySolver {
                         solution.add(literalsToIndices.indexToValue(i));
                     }
                 }
+                solution.addAll(outsideOfTheory);
                 return solution;
             } else {
+                IVecInt explanation = this.solver.unsatExplanation();
+                if (explanation != null){
+                    //the signs of the returned literals differ among the versions of sat4j, so only the variables are used
+                    this.unsatExplanation = new HashSet<Literal>();
+                    for (int i = 0; i < explanation.size(); i++){
+                        Literal assumption = assumptionsByVariables.get(Math.abs(explanation.get(i)));
+                        if (assumption != null){
+                            this.unsatExplanation.add(assumption);
+                        }
+                    }
+                }
                 return null;
             }
         } catch (TimeoutException e){
@@ -138,6 +201,16 @@ public class GroundTheorySolver {
         }
     }
 
+    /**
+     *
+     * @return a subset of the assumptions of the last call of solve(Collection) which is inconsistent with the theory
+     * (empty if the theory itself is inconsistent), or null if the last call found a model or the solver
+     * did not provide an explanation
+     */
+    public Set<Literal> unsatExplanation(){
+        return this.unsatExplanation;
+    }
+
     public Set<Literal> optimize(){
         try {
             if (this.optimizer == null) {
@@ -189,9 +262,9 @@ public class GroundTheorySolver {
             int i = 0;
             for (Literal l : c.r.literals()){
                 if (l.isNegated()){
-                    clause[i] = -literalsToIndices.valueToIndex(l.negation());
+                    clause[i] = -this.index(l.negation());
                 } else {
-                    clause[i] = literalsToIndices.valueToIndex(l);
+                    clause[i] = this.index(l);
                 }
                 i++;
             }
@@ -201,6 +274,15 @@ public class GroundTheorySolver {
         return retVal;
     }
 
+    private int index(Literal literal){
+        Integer retVal = this.indices.get(literal);
+        if (retVal == null){
+            retVal = this.literalsToIndices.valueToIndex(literal);
+            this.indices.put(literal, retVal);
+        }
+        return retVal;
+    }
+
     private List<int[]> toHardDimacsClauses(List<Clause> program){
         List<int[]> retVal = new ArrayList<int[]>();
         for (Clause c : program) {
@@ -214,9 +296,9 @@ public class GroundTheorySolver {
         int i = 0;
         for (Literal l : c.literals()){
             if (l.isNegated()){
-                hardDimacsClause[i] = -literalsToIndices.valueToIndex(l.negation());
+                hardDimacsClause[i] = -this.index(l.negation());
             } else {
-                hardDimacsClause[i] = literalsToIndices.valueToIndex(l);
+                hardDimacsClause[i] = this.index(l);
             }
             i++;
         }
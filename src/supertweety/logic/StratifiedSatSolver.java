@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.logic;
+
+import org.sat4j.core.VecInt;
+import org.sat4j.minisat.SolverFactory;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.ISolver;
+import org.sat4j.specs.TimeoutException;
+
+/**
+ * SAT solver for a stratified ground theory given by DIMACS-encoded clauses. The clauses of every level
+ * are guarded by a selector variable of the level, so a single solver (and the clauses it learns) is used
+ * for queries on all cuts of the theory. Variables of the theory and selectors are interleaved in the solver,
+ * so clauses can be added without knowing the number of variables or levels in advance.
+ */
+public class StratifiedSatSolver {
+
+    private final ISolver solver;
+
+    private int variables;
+
+    private int levels;
+
+    //number of variables declared to the solver
+    private int solverVariables;
+
+    //set when the hard clauses are contradictory
+    private boolean contradiction = false;
+
+    public StratifiedSatSolver(){
+        this(0, 0);
+    }
+
+    /**
+     *
+     * @param variables expected number of variables of the theory, they are numbered 1,...,variables
+     * @param levels expected number of levels of the theory
+     */
+    public StratifiedSatSolver(int variables, int levels){
+        this.solver = SolverFactory.newDefault();
+        this.ensureVariables(variables, levels);
+    }
+
+    public void addHardClause(int[] clause){
+        int[] internal = new int[clause.length];
+        int maxVariable = 0;
+        for (int i = 0; i < clause.length; i++){
+            internal[i] = internal(clause[i]);
+            maxVariable = Math.max(maxVariable, Math.abs(clause[i]));
+        }
+        this.ensureVariables(maxVariable, 0);
+        this.addInternalClause(internal);
+    }
+
+    public void addClause(int[] clause, int level){
+        int[] internal = new int[clause.length+1];
+        int maxVariable = 0;
+        for (int i = 0; i < clause.length; i++){
+            internal[i] = internal(clause[i]);
+            maxVariable = Math.max(maxVariable, Math.abs(clause[i]));
+        }
+        internal[clause.length] = -selector(level);
+        this.ensureVariables(maxVariable, level+1);
+        this.addInternalClause(internal);
+    }
+
+    private void addInternalClause(int[] clause){
+        if (this.contradiction){
+            return;
+        }
+        try {
+            this.solver.addClause(new VecInt(clause));
+        } catch (ContradictionException ce){
+            this.contradiction = true;
+        }
+    }
+
+    private void ensureVariables(int variables, int levels){
+        this.variables = Math.max(this.variables, variables);
+        this.levels = Math.max(this.levels, levels);
+        int needed = Math.max(2*this.variables, 2*this.levels-1);
+        if (needed > this.solverVariables){
+            this.solver.newVar(needed);
+            this.solverVariables = needed;
+        }
+    }
+
+    /**
+     *
+     * @param levels the clauses of the levels 0,...,levels-1 and the hard clauses are used
+     * @param assumptions encoded literals of variables of the theory
+     * @return the true variables of a model or null if there is no model
+     */
+    public int[] solve(int levels, int[] assumptions){
+        if (this.contradiction){
+            return null;
+        }
+        VecInt assumps = new VecInt();
+        for (int i = 0; i < levels && i < this.levels; i++){
+            assumps.push(selector(i));
+        }
+        for (int a : assumptions){
+            this.ensureVariables(Math.abs(a), 0);
+            assumps.push(internal(a));
+        }
+        try {
+            if (!this.solver.isSatisfiable(assumps)){
+                return null;
+            }
+        } catch (TimeoutException e){
+            e.printStackTrace();
+            return null;
+        }
+        int[] model = this.solver.model();
+        int size = 0;
+        for (int l : model){
+            if (l > 0 && l % 2 == 0){
+                size++;
+            }
+        }
+        int[] retVal = new int[size];
+        int j = 0;
+        for (int l : model){
+            if (l > 0 && l % 2 == 0){
+                retVal[j++] = l/2;
+            }
+        }
+        return retVal;
+    }
+
+    public int variables(){
+        return this.variables;
+    }
+
+    public int levels(){
+        return this.levels;
+    }
+
+    private static int internal(int literal){
+        return 2*literal;
+    }
+
+    private static int selector(int level){
+        return 2*level+1;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.logic;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Literal;
+import ida.utils.Sugar;
+
+import java.util.*;
+
+/**
+ * Index of clauses for finding the indexed clauses whose sets of literals are subsets (subsuming clauses)
+ * or supersets (subsumed clauses) of a given clause. Every clause is stored in the occurrence lists of all
+ * its literals and, for the subset queries, under one of its literals. Candidates are filtered by 64-bit
+ * signatures before the literal sets are compared.
+ *
+ * A clause may be added several times, it is removed from the index when it has been removed as many times
+ * as it has been added. Queries do not modify the index, so they may run concurrently when the index is not
+ * being modified.
+ */
+public class SubsumptionIndex {
+
+    private final Map<Clause,Entry> entries = new HashMap<Clause,Entry>();
+
+    //every clause is here under all its literals
+    private final Map<Literal,Set<Clause>> occurrences = new HashMap<Literal,Set<Clause>>();
+
+    //every non-empty clause is here under one of its literals
+    private final Map<Literal,Set<Clause>> anchors = new HashMap<Literal,Set<Clause>>();
+
+    private Clause emptyClause;
+
+    public SubsumptionIndex(){}
+
+    public SubsumptionIndex(Collection<Clause> clauses){
+        for (Clause c : clauses){
+            this.add(c);
+        }
+    }
+
+    public void add(Clause clause){
+        Entry entry = this.entries.get(clause);
+        if (entry != null){
+            entry.count++;
+            return;
+        }
+        this.entries.put(clause, new Entry(signature(clause)));
+        if (clause.countLiterals() == 0){
+            this.emptyClause = clause;
+            return;
+        }
+        for (Literal l : clause.literals()){
+            put(this.occurrences, l, clause);
+        }
+        put(this.anchors, clause.literals().iterator().next(), clause);
+    }
+
+    public void addAll(Collection<Clause> clauses){
+        for (Clause c : clauses){
+            this.add(c);
+        }
+    }
+
+    public void remove(Clause clause){
+        Entry entry = this.entries.get(clause);
+        if (entry == null){
+            return;
+        }
+        if (--entry.count > 0){
+            return;
+        }
+        this.entries.remove(clause);
+        if (clause.countLiterals() == 0){
+            this.emptyClause = null;
+            return;
+        }
+        for (Literal l : clause.literals()){
+            remove(this.occurrences, l, clause);
+        }
+        remove(this.anchors, clause.literals().iterator().next(), clause);
+    }
+
+    public boolean contains(Clause clause){
+        return this.entries.containsKey(clause);
+    }
+
+    public int size(){
+        return this.entries.size();
+    }
+
+    /**
+     *
+     * @param clause
+     * @return indexed clauses whose literals form a subset of the literals of the given clause (including the clause
+     * itself if it is indexed)
+     */
+    public Set<Clause> subsetsOf(Clause clause){
+        Set<Clause> retVal = new HashSet<Clause>();
+        this.subsetsOf(clause, null, retVal);
+        return retVal;
+    }
+
+    /**
+     *
+     * @param clause
+     * @return true if there is an indexed clause different from the given one whose literals form a subset of the literals
+     * of the given clause
+     */
+    public boolean containsStrictSubsetOf(Clause clause){
+        return this.subsetsOf(clause, clause, null);
+    }
+
+    /**
+     *
+     * @param clause
+     * @return true if there is an indexed clause whose literals form a subset of the literals of the given clause
+     */
+    public boolean containsSubsetOf(Clause clause){
+        return this.subsetsOf(clause, null, null);
+    }
+
+    private boolean subsetsOf(Clause clause, Clause excluded, Set<Clause> result){
+        if (this.emptyClause != null && !this.emptyClause.equals(excluded)){
+            if (result == null){
+                return true;
+            }
+            result.add(this.emptyClause);
+        }
+        long signature = signature(clause);
+        int length = clause.countLiterals();
+        boolean found = result != null && !result.isEmpty();
+        for (Literal l : clause.literals()){
+            Set<Clause> anchored = this.anchors.get(l);
+            if (anchored == null){
+                continue;
+            }
+            for (Clause candidate : anchored){
+                if (candidate.countLiterals() <= length && (this.entries.get(candidate).signature & ~signature) == 0 &&
+                        !candidate.equals(excluded) && Sugar.isSubsetOf(candidate.literals(), clause.literals())){
+                    if (result == null){
+                        return true;
+                    }
+                    result.add(candidate);
+                    found = true;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     *
+     * @param clause
+     * @return indexed clauses whose literals form a superset of the literals of the given clause (including the clause
+     * itself if it is indexed)
+     */
+    public Set<Clause> supersetsOf(Clause clause){
+        Set<Clause> retVal = new HashSet<Clause>();
+        if (clause.countLiterals() == 0){
+            retVal.addAll(this.entries.keySet());
+            return retVal;
+        }
+        Set<Clause> shortest = null;
+        for (Literal l : clause.literals()){
+            Set<Clause> occ = this.occurrences.get(l);
+            if (occ == null){
+                return retVal;
+            }
+            if (shortest == null || occ.size() < shortest.size()){
+                shortest = occ;
+            }
+        }
+        long signature = signature(clause);
+        int length = clause.countLiterals();
+        for (Clause candidate : shortest){
+            if (candidate.countLiterals() >= length && (signature & ~this.entries.get(candidate).signature) == 0 &&
+                    Sugar.isSubsetOf(clause.literals(), candidate.literals())){
+                retVal.add(candidate);
+            }
+        }
+        return retVal;
+    }
+
+    private static void put(Map<Literal,Set<Clause>> map, Literal literal, Clause clause){
+        Set<Clause> set = map.get(literal);
+        if (set == null){
+            map.put(literal, set = new HashSet<Clause>());
+        }
+        set.add(clause);
+    }
+
+    private static void remove(Map<Literal,Set<Clause>> map, Literal literal, Clause clause){
+        Set<Clause> set = map.get(literal);
+        if (set != null && set.remove(clause) && set.isEmpty()){
+            map.remove(literal);
+        }
+    }
+
+    private static long signature(Clause clause){
+        long signature = 0;
+        for (Literal l : clause.literals()){
+            signature |= 1L << (l.hashCode() & 63);
+        }
+        return signature;
+    }
+
+    private static class Entry {
+
+        private final long signature;
+
+        private int count = 1;
+
+        private Entry(long signature){
+            this.signature = signature;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.logic.utils;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Constant;
+import ida.ilp.logic.Literal;
+import ida.ilp.logic.Term;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Numbering of ground atoms (propositional variables) with interned predicate names and constants. Variables
+ * are numbered from 1 and literals are encoded as in DIMACS, i.e. as the number of their variable, negative
+ * for negated literals.
+ */
+public class LiteralDictionary {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final List<String> predicates = new ArrayList<String>();
+
+    private final Map<String,Integer> predicateIndices = new HashMap<String,Integer>();
+
+    private final List<String> constants = new ArrayList<String>();
+
+    private final Map<String,Integer> constantIndices = new HashMap<String,Integer>();
+
+    //atoms.get(i) = {predicate, argument_1, ..., argument_n} of the variable i+1
+    private final List<int[]> atoms = new ArrayList<int[]>();
+
+    private final Map<Literal,Integer> variables = new HashMap<Literal,Integer>();
+
+    //number of atoms already in the map variables
+    private int indexed = 0;
+
+    private Literal[] decoded;
+
+    private Decoder decoder;
+
+    public LiteralDictionary(){}
+
+    /**
+     *
+     * @param atom ground literal, the sign is ignored
+     * @return the variable of the atom, it is added to the dictionary if it is not there yet
+     */
+    public synchronized int add(Literal atom){
+        if (atom.isNegated()){
+            atom = atom.negation();
+        }
+        Integer variable = this.variables().get(atom);
+        if (variable != null){
+            return variable;
+        }
+        int[] encoded = new int[atom.arity()+1];
+        encoded[0] = intern(atom.predicate(), this.predicates, this.predicateIndices);
+        for (int i = 0; i < atom.arity(); i++){
+            Term t = atom.get(i);
+            if (!(t instanceof Constant)){
+                throw new IllegalArgumentException("Only ground literals can be added to the dictionary: "+atom);
+            }
+            encoded[i+1] = intern(t.name(), this.constants, this.constantIndices);
+        }
+        this.atoms.add(encoded);
+        this.variables.put(atom, this.atoms.size());
+        this.indexed++;
+        this.decoded = null;
+        return this.atoms.size();
+    }
+
+    /**
+     * Adds the atoms of the literals of the clause to the dictionary.
+     * @param clause ground clause
+     * @return the encoded literals of the clause
+     */
+    public int[] add(Clause clause){
+        int[] retVal = new int[clause.countLiterals()];
+        int i = 0;
+        for (Literal l : clause.literals()){
+            int variable = this.add(l);
+            retVal[i++] = l.isNegated() ? -variable : variable;
+        }
+        return retVal;
+    }
+
+    /**
+     *
+     * @param atom
+     * @return the variable of the atom (the sign is ignored) or 0 if the atom is not in the dictionary
+     */
+    public synchronized int variable(Literal atom){
+        Integer variable = this.variables().get(atom.isNegated() ? atom.negation() : atom);
+        return variable == null ? 0 : variable;
+    }
+
+    /**
+     *
+     * @param literal
+     * @return the encoded literal or 0 if its atom is not in the dictionary
+     */
+    public int encode(Literal literal){
+        int variable = this.variable(literal);
+        return literal.isNegated() ? -variable : variable;
+    }
+
+    public synchronized Literal atom(int variable){
+        if (this.decoded == null){
+            this.decoded = new Literal[this.atoms.size()+1];
+        }
+        Literal retVal = this.decoded[variable];
+        if (retVal == null){
+            int[] encoded = this.atoms.get(variable-1);
+            retVal = new Literal(this.predicates.get(encoded[0]), encoded.length-1);
+            for (int i = 1; i < encoded.length; i++){
+                retVal.set(Constant.construct(this.constants.get(encoded[i])), i-1);
+            }
+            this.decoded[variable] = retVal;
+        }
+        return retVal;
+    }
+
+    public Literal decode(int literal){
+        return literal < 0 ? this.atom(-literal).negation() : this.atom(literal);
+    }
+
+    /**
+     *
+     * @return immutable decoding table of the atoms currently in the dictionary, it can be used concurrently
+     * without locking the dictionary
+     */
+    public synchronized Decoder decoder(){
+        if (this.decoder == null || this.decoder.size() < this.atoms.size()){
+            Literal[] positive = new Literal[this.atoms.size()+1];
+            Literal[] negative = new Literal[this.atoms.size()+1];
+            int from = 1;
+            if (this.decoder != null){
+                System.arraycopy(this.decoder.positive, 0, positive, 0, this.decoder.positive.length);
+                System.arraycopy(this.decoder.negative, 0, negative, 0, this.decoder.negative.length);
+                from = this.decoder.positive.length;
+            }
+            for (int i = from; i < positive.length; i++){
+                positive[i] = this.atom(i);
+                negative[i] = positive[i].negation();
+            }
+            this.decoder = new Decoder(positive, negative);
+        }
+        return this.decoder;
+    }
+
+    public synchronized int size(){
+        return this.atoms.size();
+    }
+
+    //built lazily after reading
+    private Map<Literal,Integer> variables(){
+        while (this.indexed < this.atoms.size()){
+            this.indexed++;
+            this.variables.put(this.atom(this.indexed), this.indexed);
+        }
+        return this.variables;
+    }
+
+    public synchronized void write(DataOutput out) throws IOException {
+        writeStrings(this.predicates, out);
+        writeStrings(this.constants, out);
+        out.writeInt(this.atoms.size());
+        for (int[] atom : this.atoms){
+            out.writeInt(atom.length-1);
+            for (int i : atom){
+                out.writeInt(i);
+            }
+        }
+    }
+
+    /**
+     * Reads a dictionary written by write(DataOutput) starting at the current position of the buffer.
+     * @param buffer
+     * @return
+     */
+    public static LiteralDictionary read(ByteBuffer buffer){
+        LiteralDictionary retVal = new LiteralDictionary();
+        readStrings(buffer, retVal.predicates, retVal.predicateIndices);
+        readStrings(buffer, retVal.constants, retVal.constantIndices);
+        int numAtoms = buffer.getInt();
+        for (int i = 0; i < numAtoms; i++){
+            int[] atom = new int[buffer.getInt()+1];
+            for (int j = 0; j < atom.length; j++){
+                atom[j] = buffer.getInt();
+            }
+            retVal.atoms.add(atom);
+        }
+        return retVal;
+    }
+
+    private static int intern(String s, List<String> list, Map<String,Integer> indices){
+        Integer index = indices.get(s);
+        if (index == null){
+            indices.put(s, index = list.size());
+            list.add(s);
+        }
+        return index;
+    }
+
+    private static void writeStrings(List<String> strings, DataOutput out) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings){
+            byte[] bytes = s.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static void readStrings(ByteBuffer buffer, List<String> list, Map<String,Integer> indices){
+        int size = buffer.getInt();
+        for (int i = 0; i < size; i++){
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            intern(new String(bytes, UTF8), list, indices);
+        }
+    }
+
+    /**
+     * Decoding table of the atoms of a dictionary (and of their negations) at the time of its creation.
+     */
+    public static class Decoder {
+
+        private final Literal[] positive;
+
+        private final Literal[] negative;
+
+        private Decoder(Literal[] positive, Literal[] negative){
+            this.positive = positive;
+            this.negative = negative;
+        }
+
+        /**
+         *
+         * @return number of atoms which can be decoded
+         */
+        public int size(){
+            return this.positive.length-1;
+        }
+
+        public Literal decode(int literal){
+            return literal < 0 ? this.negative[-literal] : this.positive[literal];
+        }
+    }
+}
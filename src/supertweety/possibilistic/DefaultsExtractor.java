@@ -18,6 +18,7 @@ import ida.utils.tuples.Pair;
 import supertweety.defaults.DefaultRule;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * Created by kuzelkao_cardiff on 07/03/16.
@@ -29,8 +30,29 @@ public class DefaultsExtractor {
     }
 
     public static Set<DefaultRule> extractSystemPDefaults(PossibilisticLogicTheory plt, Set<Clause> hardRules, int maxAntecedentLength){
+        return extractSystemPDefaults(plt, hardRules, maxAntecedentLength, false);
+    }
+
+    public static Set<DefaultRule> extractSystemPDefaults_parallelized(PossibilisticLogicTheory plt, int maxAntecedentLength){
+        return extractSystemPDefaults_parallelized(plt, Sugar.<Clause>set(), maxAntecedentLength);
+    }
+
+    /**
+     * Same as extractSystemPDefaults but the candidate antecedents of the same length (and the defaults
+     * with these antecedents) are processed in parallel in Globals.forkJoinPool(). The results are merged
+     * in the order of the candidates, so the output is the same as the output of the sequential version.
+     * @param plt
+     * @param hardRules
+     * @param maxAntecedentLength
+     * @return
+     */
+    public static Set<DefaultRule> extractSystemPDefaults_parallelized(PossibilisticLogicTheory plt, Set<Clause> hardRules, int maxAntecedentLength){
+        return extractSystemPDefaults(plt, hardRules, maxAntecedentLength, true);
+    }
+
+    private static Set<DefaultRule> extractSystemPDefaults(PossibilisticLogicTheory plt, final Set<Clause> hardRules, int maxAntecedentLength, boolean parallel){
         Set<Literal> universe = new HashSet<Literal>();
-        for (Clause rule : Sugar.flatten(plt.toLevelList())){
+        for (Clause rule : plt.getRules()){
             for (Literal l : rule.literals()){
                 if (l.isNegated()){
                     universe.add(l.negation());
@@ -49,19 +71,28 @@ public class DefaultsExtractor {
                 }
             }
         }
+        final IncrementalRationalClosure fromShorter = new IncrementalRationalClosure();
         for (int antecedentLength = 1; antecedentLength <= maxAntecedentLength; antecedentLength++){
-            PossibilisticLogicTheory fromShorter = GroundRationalClosure.transform(defaultRules);
-            newCandidates(plt, antecedentLength, bounds, universe);
-            for (Pair<Set<Literal>,Set<Literal>> p : bounds.bounds(antecedentLength)){
-                if (p.r.size() != p.s.size()) {
-                    for (Literal consLit : Sugar.setDifference(p.s, p.r)) {
-                        PossibilisticLogicTheory fromShorterWithoutFalsifiedEvidence = PossibilisticLogicTheory.fromStratification(fromShorter.toLevelList(), hardRules);
-                        fromShorterWithoutFalsifiedEvidence.removeRulesDirectlyFalsifiedByEvidence(p.r);
-                        if (!fromShorterWithoutFalsifiedEvidence.implies(p.r, consLit)) {
-                            defaultRules.add(new DefaultRule(new Clause(p.r), new Clause(consLit)));
-                            //System.out.println(new DefaultRule(new Clause(p.r), new Clause(consLit)));
+            if (parallel){
+                fromShorter.addAll_parallelized(defaultRules);
+                newCandidates_parallelized(plt, antecedentLength, bounds, universe);
+                List<Callable<Set<DefaultRule>>> tasks = new ArrayList<Callable<Set<DefaultRule>>>();
+                for (final Pair<Set<Literal>,Set<Literal>> p : bounds.bounds(antecedentLength)){
+                    tasks.add(new Callable<Set<DefaultRule>>() {
+                        @Override
+                        public Set<DefaultRule> call() throws Exception {
+                            return newDefaults(fromShorter, hardRules, p);
                         }
-                    }
+                    });
+                }
+                for (Set<DefaultRule> newDefaults : Globals.invokeAll(tasks)){
+                    defaultRules.addAll(newDefaults);
+                }
+            } else {
+                fromShorter.addAll(defaultRules);
+                newCandidates(plt, antecedentLength, bounds, universe);
+                for (Pair<Set<Literal>,Set<Literal>> p : bounds.bounds(antecedentLength)){
+                    defaultRules.addAll(newDefaults(fromShorter, hardRules, p));
                 }
             }
         }
@@ -69,6 +100,20 @@ public class DefaultsExtractor {
         return defaultRules;
     }
 
+    private static Set<DefaultRule> newDefaults(IncrementalRationalClosure fromShorter, Set<Clause> hardRules, Pair<Set<Literal>,Set<Literal>> p){
+        Set<DefaultRule> retVal = new HashSet<DefaultRule>();
+        if (p.r.size() != p.s.size()) {
+            IncrementalRationalClosure.EvidenceView fromShorterWithoutFalsifiedEvidence = fromShorter.conditionedOn(p.r, hardRules);
+            for (Literal consLit : Sugar.setDifference(p.s, p.r)) {
+                if (!fromShorterWithoutFalsifiedEvidence.implies(consLit)) {
+                    retVal.add(new DefaultRule(new Clause(p.r), new Clause(consLit)));
+                    //System.out.println(new DefaultRule(new Clause(p.r), new Clause(consLit)));
+                }
+            }
+        }
+        return retVal;
+    }
+
     private static void newCandidates(PossibilisticLogicTheory plt, int antecedentLength, Sets<Literal> bounds, Set<Literal> universe){
         for (Pair<Set<Literal>,Set<Literal>> previous : bounds.bounds(antecedentLength-1)){
             for (Set<Literal> candidateAntecedent : newCandidates(previous.r, previous.s, universe)){
@@ -80,6 +125,35 @@ public class DefaultsExtractor {
         }
     }
 
+    /**
+     * A candidate can only be inside the bounds of another candidate of the same length if the two candidates
+     * are equal, so the candidates are collected (without duplicates) and filtered against the shorter bounds first,
+     * then their implied literals are computed in parallel and the bounds are stored in the order of the candidates.
+     */
+    private static void newCandidates_parallelized(final PossibilisticLogicTheory plt, int antecedentLength, Sets<Literal> bounds, final Set<Literal> universe){
+        Set<Set<Literal>> candidates = new LinkedHashSet<Set<Literal>>();
+        for (Pair<Set<Literal>,Set<Literal>> previous : bounds.bounds(antecedentLength-1)){
+            for (Set<Literal> candidateAntecedent : newCandidates(previous.r, previous.s, universe)){
+                if (!candidates.contains(candidateAntecedent) && !bounds.inside(candidateAntecedent)){
+                    candidates.add(candidateAntecedent);
+                }
+            }
+        }
+        List<Callable<Set<Literal>>> tasks = new ArrayList<Callable<Set<Literal>>>();
+        for (final Set<Literal> candidateAntecedent : candidates){
+            tasks.add(new Callable<Set<Literal>>() {
+                @Override
+                public Set<Literal> call() throws Exception {
+                    return Sugar.union(candidateAntecedent, impliedLiterals(candidateAntecedent, plt, universe));
+                }
+            });
+        }
+        Iterator<Set<Literal>> upperBounds = Globals.invokeAll(tasks).iterator();
+        for (Set<Literal> candidateAntecedent : candidates){
+            bounds.store(candidateAntecedent, upperBounds.next());
+        }
+    }
+
     private static Set<Literal> impliedLiterals(Set<Literal> evidence, PossibilisticLogicTheory plt, Set<Literal> universe){
         Set<Literal> retVal = new HashSet<Literal>();
         for (Literal l : universe){
@@ -13,6 +13,13 @@ package supertweety.possibilistic;
 import supertweety.logic.utils.ModelCounterFactory;
 import supertweety.logic.utils.RelsatModelCounterFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
 /**
  * Created by kuzelkao_cardiff on 12/04/16.
  */
@@ -20,4 +27,45 @@ public class Globals {
 
     public static ModelCounterFactory modelCounterFactory = new RelsatModelCounterFactory("/Users/kuzelkao_cardiff/Dropbox/Experiments/ECAI16/relsat_2.02/");
 
+    public static int processors = Runtime.getRuntime().availableProcessors();
+
+    private static ForkJoinPool forkJoinPool;
+
+    /**
+     *
+     * @return work-stealing pool with Globals.processors threads shared by the parallelized algorithms; when
+     * Globals.processors changes, a new pool is created and the previous one is shut down (the tasks already
+     * submitted to it are still completed, then its threads terminate)
+     */
+    public static synchronized ForkJoinPool forkJoinPool(){
+        if (forkJoinPool == null || forkJoinPool.getParallelism() != processors){
+            if (forkJoinPool != null){
+                forkJoinPool.shutdown();
+            }
+            forkJoinPool = new ForkJoinPool(processors);
+        }
+        return forkJoinPool;
+    }
+
+    /**
+     * Runs the tasks in the shared pool and waits for all of them.
+     * @param tasks
+     * @param <T>
+     * @return results of the tasks in the order of the tasks
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks){
+        List<T> retVal = new ArrayList<T>(tasks.size());
+        try {
+            for (Future<T> future : forkJoinPool().invokeAll(tasks)){
+                retVal.add(future.get());
+            }
+        } catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } catch (ExecutionException ee){
+            throw new RuntimeException(ee.getCause());
+        }
+        return retVal;
+    }
+
 }
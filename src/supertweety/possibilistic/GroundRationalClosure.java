@@ -16,7 +16,6 @@ import ida.ilp.logic.Literal;
 import ida.utils.Sugar;
 import supertweety.defaults.DefaultRule;
 import supertweety.defaults.PossibilisticZRanker;
-import supertweety.logic.GroundTheorySolver;
 
 import java.awt.*;
 import java.util.*;
@@ -44,42 +43,11 @@ public class GroundRationalClosure {
     }
 
     public static List<Set<DefaultRule>> zranking(Collection<DefaultRule> defaults){
-        Set<DefaultRule> delta = Sugar.<DefaultRule>setFromCollections(defaults);
-        List<Set<DefaultRule>> zranking = new ArrayList<Set<DefaultRule>>();
-        while (!delta.isEmpty()){
-            Set<DefaultRule> tolerated = new HashSet<DefaultRule>();
-            Set<Clause> theory = Sugar.<DefaultRule,Clause>funcall(delta, new Sugar.Fun<DefaultRule,Clause>(){
-                @Override
-                public Clause apply(DefaultRule defaultRule) {
-                    return defaultRule.toMaterialImplication();
-                }
-            });
+        return new IncrementalRationalClosure(defaults).zranking();
+    }
 
-            for (DefaultRule rule : delta){
-                boolean addAntecedent = !theory.contains(rule.antecedent());
-                if (addAntecedent){
-                    if (rule.antecedent().countLiterals() > 0) {
-                        theory.add(rule.antecedent());
-                    }
-                }
-                GroundTheorySolver solver = new GroundTheorySolver(theory);
-                if (solver.solve() != null){
-                    tolerated.add(rule);
-                }
-                if (addAntecedent){
-                    if (rule.antecedent().countLiterals() > 0) {
-                        theory.remove(rule.antecedent());
-                    }
-                }
-            }
-            //System.out.println("tolerated: "+tolerated+", theory: "+theoryToString(theory));
-            if (tolerated.isEmpty()){
-                return null;
-            }
-            zranking.add(tolerated);
-            delta.removeAll(tolerated);
-        }
-        return zranking;
+    public static List<Set<DefaultRule>> zranking_parallelized(Collection<DefaultRule> defaults){
+        return new IncrementalRationalClosure(defaults, true).zranking();
     }
 
     private static String theoryToString(Set<Clause> theory){
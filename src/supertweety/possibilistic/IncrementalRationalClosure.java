@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Constant;
+import ida.ilp.logic.Literal;
+import ida.utils.Sugar;
+import supertweety.defaults.DefaultRule;
+import supertweety.logic.GroundTheorySolver;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Z-ranking (rational closure) of a set of ground default rules which is updated when new defaults are added.
+ *
+ * Adding defaults can only make rules less tolerated, so the levels are re-checked from the lowest one up with
+ * the rules which have been pushed out of the lower levels (and the new rules) and the update stops at the first
+ * level where no such rules remain - the higher levels do not change. For every tolerated rule a model of its
+ * antecedent and of the rules at its level and above is stored, a rule whose model also satisfies the rules pushed
+ * to its level is still tolerated without calling the SAT solver.
+ */
+public class IncrementalRationalClosure {
+
+    //levels of the Z-ranking, from the least specific (lowest necessity) to the most specific
+    private List<Set<DefaultRule>> levels = new ArrayList<Set<DefaultRule>>();
+
+    private final Set<DefaultRule> ranked = new HashSet<DefaultRule>();
+
+    private final Map<DefaultRule,Set<Literal>> witnesses = new HashMap<DefaultRule,Set<Literal>>();
+
+    private boolean consistent = true;
+
+    public IncrementalRationalClosure(){}
+
+    public IncrementalRationalClosure(Collection<DefaultRule> defaults){
+        this.addAll(defaults);
+    }
+
+    public IncrementalRationalClosure(Collection<DefaultRule> defaults, boolean parallel){
+        this.addAll(defaults, parallel);
+    }
+
+    /**
+     *
+     * @param defaults
+     * @return false if the defaults added so far have no Z-ranking
+     */
+    public boolean addAll(Collection<DefaultRule> defaults){
+        return this.addAll(defaults, false);
+    }
+
+    /**
+     * Same as addAll but the tolerance of the rules at a level is checked in parallel, each thread with its own solver.
+     * @param defaults
+     * @return false if the defaults added so far have no Z-ranking
+     */
+    public boolean addAll_parallelized(Collection<DefaultRule> defaults){
+        return this.addAll(defaults, true);
+    }
+
+    private boolean addAll(Collection<DefaultRule> defaults, boolean parallel){
+        if (!this.consistent){
+            return false;
+        }
+        Set<DefaultRule> pending = new HashSet<DefaultRule>();
+        for (DefaultRule rule : defaults){
+            if (!this.ranked.contains(rule)){
+                pending.add(rule);
+            }
+        }
+        if (pending.isEmpty()){
+            return true;
+        }
+        this.ranked.addAll(pending);
+        List<Set<DefaultRule>> newLevels = new ArrayList<Set<DefaultRule>>();
+        int i = 0;
+        while (!pending.isEmpty()){
+            Set<DefaultRule> oldLevel = i < this.levels.size() ? this.levels.get(i) : Collections.<DefaultRule>emptySet();
+            List<Clause> theory = new ArrayList<Clause>();
+            for (int j = i; j < this.levels.size(); j++){
+                theory.addAll(materialImplications(this.levels.get(j)));
+            }
+            List<Clause> pendingImplications = materialImplications(pending);
+            theory.addAll(pendingImplications);
+            Set<DefaultRule> tolerated = new HashSet<DefaultRule>();
+            List<DefaultRule> unresolved = new ArrayList<DefaultRule>();
+            for (DefaultRule rule : Sugar.union(oldLevel, pending)){
+                Set<Literal> witness = this.witnesses.get(rule);
+                if (witness != null && satisfiesAll(witness, pendingImplications)){
+                    tolerated.add(rule);
+                } else {
+                    unresolved.add(rule);
+                }
+            }
+            List<Set<Literal>> newWitnesses = parallel ? witnesses_parallelized(theory, unresolved) : witnesses(theory, unresolved);
+            for (int j = 0; j < unresolved.size(); j++){
+                DefaultRule rule = unresolved.get(j);
+                Set<Literal> witness = newWitnesses.get(j);
+                if (witness == null){
+                    this.witnesses.remove(rule);
+                } else {
+                    this.witnesses.put(rule, witness);
+                    tolerated.add(rule);
+                }
+            }
+            if (tolerated.isEmpty()){
+                this.consistent = false;
+                return false;
+            }
+            newLevels.add(tolerated);
+            pending.addAll(oldLevel);
+            pending.removeAll(tolerated);
+            i++;
+        }
+        for (int j = i; j < this.levels.size(); j++){
+            newLevels.add(this.levels.get(j));
+        }
+        this.levels = newLevels;
+        return true;
+    }
+
+    public boolean isConsistent(){
+        return this.consistent;
+    }
+
+    /**
+     *
+     * @return copy of the levels of the Z-ranking or null if the defaults have no Z-ranking
+     */
+    public List<Set<DefaultRule>> zranking(){
+        if (!this.consistent){
+            return null;
+        }
+        List<Set<DefaultRule>> retVal = new ArrayList<Set<DefaultRule>>();
+        for (Set<DefaultRule> level : this.levels){
+            retVal.add(new HashSet<DefaultRule>(level));
+        }
+        return retVal;
+    }
+
+    /**
+     *
+     * @return the possibilistic logic theory given by the Z-ranking or null if the defaults have no Z-ranking
+     */
+    public PossibilisticLogicTheory toTheory(){
+        if (!this.consistent){
+            return null;
+        }
+        List<Set<Clause>> stratification = new ArrayList<Set<Clause>>();
+        for (Set<DefaultRule> level : this.levels){
+            stratification.add(new HashSet<Clause>(materialImplications(level)));
+        }
+        return PossibilisticLogicTheory.fromStratification(stratification);
+    }
+
+    /**
+     * Creates a view of the theory toTheory() together with the given hard rules from which the rules directly
+     * falsified by the evidence have been removed. The theory is not copied; the view keeps one SAT solver
+     * so that it can answer many queries with the same evidence.
+     * @param evidence
+     * @param hardRules
+     * @return
+     */
+    public EvidenceView conditionedOn(Set<Literal> evidence, Collection<Clause> hardRules){
+        if (!this.consistent){
+            throw new IllegalStateException("The default rules do not have a Z-ranking.");
+        }
+        return new EvidenceView(evidence, hardRules);
+    }
+
+    /**
+     *
+     * @param theory
+     * @param rules
+     * @return for every rule a model of the theory and the antecedent of the rule, or null if the rule is not tolerated
+     */
+    private static List<Set<Literal>> witnesses(Collection<Clause> theory, List<DefaultRule> rules){
+        List<Set<Literal>> retVal = new ArrayList<Set<Literal>>(rules.size());
+        if (!rules.isEmpty()){
+            GroundTheorySolver solver = new GroundTheorySolver(theory);
+            for (DefaultRule rule : rules){
+                retVal.add(solver.solve(rule.antecedent().literals()));
+            }
+        }
+        return retVal;
+    }
+
+    private static List<Set<Literal>> witnesses_parallelized(final Collection<Clause> theory, List<DefaultRule> rules){
+        if (rules.size() < 2 || Globals.processors < 2){
+            return witnesses(theory, rules);
+        }
+        List<Callable<List<Set<Literal>>>> tasks = new ArrayList<Callable<List<Set<Literal>>>>();
+        for (final List<DefaultRule> chunk : Sugar.splitList(rules, Globals.processors)){
+            tasks.add(new Callable<List<Set<Literal>>>() {
+                @Override
+                public List<Set<Literal>> call() throws Exception {
+                    return witnesses(theory, chunk);
+                }
+            });
+        }
+        List<Set<Literal>> retVal = new ArrayList<Set<Literal>>(rules.size());
+        for (List<Set<Literal>> chunkWitnesses : Globals.invokeAll(tasks)){
+            retVal.addAll(chunkWitnesses);
+        }
+        return retVal;
+    }
+
+    private static List<Clause> materialImplications(Collection<DefaultRule> rules){
+        List<Clause> retVal = new ArrayList<Clause>();
+        for (DefaultRule rule : rules){
+            retVal.add(rule.toMaterialImplication());
+        }
+        return retVal;
+    }
+
+    private static boolean satisfiesAll(Set<Literal> model, List<Clause> clauses){
+        for (Clause c : clauses){
+            if (!satisfies(model, c)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //models contain just the true (positive) literals
+    private static boolean satisfies(Set<Literal> model, Clause clause){
+        for (Literal l : clause.literals()){
+            if (l.isNegated() != model.contains(TheoryComponents.variable(l))){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean falsified(Clause c, Set<Literal> evidence){
+        for (Literal l : c.literals()){
+            if (!evidence.contains(l.negation())){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Answers the same queries as PossibilisticLogicTheory.implies(evidence, literal) on the theory of the closure
+     * with the hard rules after calling removeRulesDirectlyFalsifiedByEvidence(evidence) on it.
+     */
+    public class EvidenceView {
+
+        private final Set<Literal> evidence;
+
+        private final GroundTheorySolver solver;
+
+        //selectors.get(i) switches on the i-th non-empty level
+        private final List<Literal> selectors = new ArrayList<Literal>();
+
+        //index of the lowest level which is consistent with the evidence, selectors.size() if there is none
+        private final int consistentFrom;
+
+        private EvidenceView(Set<Literal> evidence, Collection<Clause> hardRules){
+            this.evidence = evidence;
+            List<Clause> theory = new ArrayList<Clause>(hardRules);
+            for (Set<DefaultRule> level : levels){
+                Literal selector = new Literal("@level", Constant.construct(String.valueOf(this.selectors.size())));
+                boolean empty = true;
+                for (Clause c : materialImplications(level)){
+                    if (!falsified(c, evidence)){
+                        theory.add(new Clause(Sugar.union(c.literals(), selector.negation())));
+                        empty = false;
+                    }
+                }
+                if (!empty){
+                    this.selectors.add(selector);
+                }
+            }
+            this.solver = new GroundTheorySolver(theory);
+            int min = 0;
+            int max = this.selectors.size()-1;
+            int consistentFrom = this.selectors.size();
+            while (max >= min){
+                int mid = (min+max)/2;
+                if (this.solver.solve(this.assumptions(mid, null)) != null){
+                    max = mid-1;
+                    consistentFrom = mid;
+                } else {
+                    min = mid+1;
+                }
+            }
+            this.consistentFrom = consistentFrom;
+        }
+
+        public boolean implies(Literal literal){
+            if (this.consistentFrom == this.selectors.size()){
+                return false;
+            }
+            return this.solver.solve(this.assumptions(this.consistentFrom, literal.negation())) == null;
+        }
+
+        private List<Literal> assumptions(int fromLevel, Literal extra){
+            List<Literal> retVal = new ArrayList<Literal>(this.evidence);
+            retVal.addAll(this.selectors.subList(fromLevel, this.selectors.size()));
+            if (extra != null){
+                retVal.add(extra);
+            }
+            return retVal;
+        }
+    }
+}
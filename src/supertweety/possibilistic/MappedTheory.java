@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Literal;
+import ida.utils.tuples.Pair;
+import supertweety.logic.StratifiedSatSolver;
+import supertweety.logic.utils.LiteralDictionary;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Ground possibilistic logic theory stored in a compact binary file which is memory-mapped when it is opened.
+ * Clauses are stored as int-encoded literals (see LiteralDictionary), the hard rules first and then the levels
+ * from the highest to the lowest necessity, so that every alpha-cut is a prefix of the clauses. Opening the file
+ * reads only the header; the dictionary is read, and the SAT solver built, when they are first needed, and Clause
+ * objects are created only by the methods which return them.
+ *
+ * File layout (big-endian): magic, version, number of variables, number of hard rules, number of levels, number
+ * of clauses, number of literals, weights of the levels (doubles, descending), ends of the cuts (numLevels+1 ints,
+ * the i-th is the number of clauses in the cut consisting of the hard rules and the i highest levels), offsets
+ * of the clauses into the literals (numClauses+1 ints), literals, dictionary.
+ */
+public class MappedTheory {
+
+    private final static int MAGIC = 0x504c5431;
+
+    private final static int VERSION = 1;
+
+    private final static int HEADER_SIZE = 7*4;
+
+    private final ByteBuffer buffer;
+
+    private final int numVariables;
+
+    private final double[] weights;
+
+    private final int[] cutEnds;
+
+    private final IntBuffer clauseOffsets;
+
+    private final IntBuffer literals;
+
+    private final int dictionaryOffset;
+
+    private LiteralDictionary dictionary;
+
+    private StratifiedSatSolver solver;
+
+    private MappedTheory(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC){
+            throw new IOException("Not a possibilistic logic theory file.");
+        }
+        if (buffer.getInt(4) != VERSION){
+            throw new IOException("Unsupported version of the theory file: "+buffer.getInt(4));
+        }
+        this.numVariables = buffer.getInt(8);
+        int numHardRules = buffer.getInt(12);
+        int numLevels = buffer.getInt(16);
+        int numClauses = buffer.getInt(20);
+        int numLiterals = buffer.getInt(24);
+        int position = HEADER_SIZE;
+        this.weights = new double[numLevels];
+        for (int i = 0; i < numLevels; i++, position += 8){
+            this.weights[i] = buffer.getDouble(position);
+        }
+        this.cutEnds = new int[numLevels+1];
+        for (int i = 0; i <= numLevels; i++, position += 4){
+            this.cutEnds[i] = buffer.getInt(position);
+        }
+        if (this.cutEnds[0] != numHardRules || this.cutEnds[numLevels] != numClauses){
+            throw new IOException("Corrupted theory file.");
+        }
+        this.clauseOffsets = slice(buffer, position, numClauses+1);
+        position += 4*(numClauses+1);
+        this.literals = slice(buffer, position, numLiterals);
+        position += 4*numLiterals;
+        this.dictionaryOffset = position;
+    }
+
+    private static IntBuffer slice(ByteBuffer buffer, int position, int length){
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        duplicate.limit(position+4*length);
+        return duplicate.slice().asIntBuffer();
+    }
+
+    public static MappedTheory open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedTheory(buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public static void write(PossibilisticLogicTheory plt, File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            write(plt, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void write(PossibilisticLogicTheory plt, DataOutputStream out) throws IOException {
+        if (!plt.isGround()){
+            throw new IllegalArgumentException("Only ground theories can be stored in the binary format.");
+        }
+        LiteralDictionary dictionary = new LiteralDictionary();
+        List<int[]> clauses = new ArrayList<int[]>();
+        for (Clause hardRule : plt.hardRules()){
+            clauses.add(dictionary.add(hardRule));
+        }
+        List<Double> weights = new ArrayList<Double>(plt.weights().descendingSet());
+        int[] cutEnds = new int[weights.size()+1];
+        cutEnds[0] = clauses.size();
+        for (int i = 0; i < weights.size(); i++){
+            for (Clause rule : plt.getAlphaLevel(weights.get(i))){
+                clauses.add(dictionary.add(rule));
+            }
+            cutEnds[i+1] = clauses.size();
+        }
+        //variables which do not appear in the rules
+        for (Literal variable : plt.propositionalVariables()){
+            dictionary.add(variable);
+        }
+        int numLiterals = 0;
+        for (int[] clause : clauses){
+            numLiterals += clause.length;
+        }
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(dictionary.size());
+        out.writeInt(cutEnds[0]);
+        out.writeInt(weights.size());
+        out.writeInt(clauses.size());
+        out.writeInt(numLiterals);
+        for (double weight : weights){
+            out.writeDouble(weight);
+        }
+        for (int cutEnd : cutEnds){
+            out.writeInt(cutEnd);
+        }
+        int offset = 0;
+        for (int[] clause : clauses){
+            out.writeInt(offset);
+            offset += clause.length;
+        }
+        out.writeInt(offset);
+        for (int[] clause : clauses){
+            for (int l : clause){
+                out.writeInt(l);
+            }
+        }
+        dictionary.write(out);
+        out.flush();
+    }
+
+    public synchronized LiteralDictionary dictionary(){
+        if (this.dictionary == null){
+            ByteBuffer duplicate = this.buffer.duplicate();
+            duplicate.position(this.dictionaryOffset);
+            this.dictionary = LiteralDictionary.read(duplicate);
+        }
+        return this.dictionary;
+    }
+
+    public int countLevels(){
+        return this.weights.length;
+    }
+
+    public int countHardRules(){
+        return this.cutEnds[0];
+    }
+
+    /**
+     *
+     * @return number of rules in all levels (without the hard rules)
+     */
+    public int countRules(){
+        return this.cutEnds[this.weights.length]-this.cutEnds[0];
+    }
+
+    public TreeSet<Double> weights(){
+        TreeSet<Double> retVal = new TreeSet<Double>();
+        for (double w : this.weights){
+            retVal.add(w);
+        }
+        return retVal;
+    }
+
+    /**
+     *
+     * @param index index of a clause, the hard rules come first and then the levels from the highest necessity
+     * @return the int-encoded literals of the clause
+     */
+    public int[] literals(int index){
+        int from = this.clauseOffsets.get(index);
+        int[] retVal = new int[this.clauseOffsets.get(index+1)-from];
+        for (int i = 0; i < retVal.length; i++){
+            retVal[i] = this.literals.get(from+i);
+        }
+        return retVal;
+    }
+
+    public Clause clause(int index){
+        LiteralDictionary dictionary = this.dictionary();
+        List<Literal> literals = new ArrayList<Literal>();
+        for (int l : this.literals(index)){
+            literals.add(dictionary.decode(l));
+        }
+        return new Clause(literals);
+    }
+
+    /**
+     *
+     * @param alpha
+     * @return the rules with necessity at least alpha together with the hard rules
+     */
+    public List<Clause> getAlphaCut(double alpha){
+        List<Clause> retVal = new ArrayList<Clause>();
+        for (int i = 0, end = this.cutEnds[this.countLevels(alpha)]; i < end; i++){
+            retVal.add(this.clause(i));
+        }
+        return retVal;
+    }
+
+    public PossibilisticLogicTheory toTheory(){
+        List<Set<Clause>> stratification = new ArrayList<Set<Clause>>();
+        List<Double> weights = new ArrayList<Double>();
+        for (int level = this.weights.length-1; level >= 0; level--){
+            Set<Clause> clauses = new HashSet<Clause>();
+            for (int i = this.cutEnds[level]; i < this.cutEnds[level+1]; i++){
+                clauses.add(this.clause(i));
+            }
+            stratification.add(clauses);
+            weights.add(this.weights[level]);
+        }
+        Set<Clause> hardRules = new HashSet<Clause>();
+        for (int i = 0; i < this.cutEnds[0]; i++){
+            hardRules.add(this.clause(i));
+        }
+        PossibilisticLogicTheory retVal = PossibilisticLogicTheory.fromStratification(stratification, weights, hardRules);
+        boolean[] used = new boolean[this.numVariables+1];
+        for (int i = 0; i < this.literals.limit(); i++){
+            used[Math.abs(this.literals.get(i))] = true;
+        }
+        for (int variable = 1; variable <= this.numVariables; variable++){
+            if (!used[variable]){
+                retVal.addAdditionalPropositionalVariable(this.dictionary().atom(variable));
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Same as PossibilisticLogicTheory.solve(evidence).
+     * @param evidence
+     * @return a model of the lowest consistent cut together with the evidence and the necessity of the cut, or null
+     */
+    public synchronized Pair<Set<Literal>,Double> solve(Collection<Literal> evidence){
+        int[] encodedEvidence = this.encode(evidence, null);
+        if (encodedEvidence == null){
+            return null;
+        }
+        int min = 1;
+        int max = this.weights.length;
+        int[] solution = null;
+        int solutionLevels = 0;
+        while (max >= min){
+            int mid = (min+max)/2;
+            int[] currentSolution = this.solver().solve(mid, encodedEvidence);
+            if (currentSolution != null){
+                min = mid+1;
+                solution = currentSolution;
+                solutionLevels = mid;
+            } else {
+                max = mid-1;
+            }
+        }
+        if (solution == null){
+            return null;
+        }
+        return new Pair<Set<Literal>,Double>(this.decodeModel(solution, evidence), this.weights[solutionLevels-1]);
+    }
+
+    /**
+     * Same as PossibilisticLogicTheory.solve(alpha, evidence).
+     * @param alpha
+     * @param evidence
+     * @return a model of the alpha-cut together with the evidence or null
+     */
+    public synchronized Set<Literal> solve(double alpha, Collection<Literal> evidence){
+        int[] encodedEvidence = this.encode(evidence, null);
+        if (encodedEvidence == null){
+            return null;
+        }
+        int[] solution = this.solver().solve(this.countLevels(alpha), encodedEvidence);
+        return solution == null ? null : this.decodeModel(solution, evidence);
+    }
+
+    /**
+     * Same as PossibilisticLogicTheory.implies(evidence, literal).
+     * @param evidence
+     * @param literal
+     * @return
+     */
+    public synchronized boolean implies(Collection<Literal> evidence, Literal literal){
+        Pair<Set<Literal>,Double> solution = this.solve(evidence);
+        if (solution == null){
+            return false;
+        }
+        int[] query = this.encode(evidence, literal.negation());
+        return query == null || this.solver().solve(this.countLevels(solution.s), query) == null;
+    }
+
+    /**
+     *
+     * @param evidence
+     * @param extra
+     * @return the encoded literals of the variables of the theory or null if the literals outside the theory
+     * are contradictory
+     */
+    private int[] encode(Collection<Literal> evidence, Literal extra){
+        LiteralDictionary dictionary = this.dictionary();
+        List<Literal> all = new ArrayList<Literal>(evidence);
+        if (extra != null){
+            all.add(extra);
+        }
+        Set<Literal> outside = new HashSet<Literal>();
+        int[] encoded = new int[all.size()];
+        int size = 0;
+        for (Literal l : all){
+            int e = dictionary.encode(l);
+            if (e == 0){
+                if (outside.contains(l.negation())){
+                    return null;
+                }
+                outside.add(l);
+            } else {
+                encoded[size++] = e;
+            }
+        }
+        return Arrays.copyOf(encoded, size);
+    }
+
+    private Set<Literal> decodeModel(int[] model, Collection<Literal> evidence){
+        LiteralDictionary dictionary = this.dictionary();
+        Set<Literal> retVal = new HashSet<Literal>();
+        for (int variable : model){
+            retVal.add(dictionary.atom(variable));
+        }
+        //evidence outside the theory
+        for (Literal l : evidence){
+            if (!l.isNegated() && dictionary.variable(l) == 0){
+                retVal.add(l);
+            }
+        }
+        return retVal;
+    }
+
+    private int countLevels(double alpha){
+        int min = 0;
+        int max = this.weights.length;
+        while (min < max){
+            int mid = (min+max)/2;
+            if (this.weights[mid] >= alpha){
+                min = mid+1;
+            } else {
+                max = mid;
+            }
+        }
+        return min;
+    }
+
+    private StratifiedSatSolver solver(){
+        if (this.solver == null){
+            StratifiedSatSolver solver = new StratifiedSatSolver(this.numVariables, this.weights.length);
+            for (int i = 0; i < this.cutEnds[0]; i++){
+                solver.addHardClause(this.literals(i));
+            }
+            for (int level = 0; level < this.weights.length; level++){
+                for (int i = this.cutEnds[level]; i < this.cutEnds[level+1]; i++){
+                    solver.addClause(this.literals(i), level);
+                }
+            }
+            this.solver = solver;
+        }
+        return this.solver;
+    }
+}
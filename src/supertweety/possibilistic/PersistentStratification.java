@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic;
+
+import ida.ilp.logic.Clause;
+
+import java.util.*;
+
+/**
+ * Immutable stratification (list of levels sorted from the lowest to the highest necessity). The levels are stored
+ * in a persistent AVL tree indexed by position, so that changing a level, inserting a new level or removing
+ * a level creates a new stratification in O(log n + size of the changed level) which shares all the other levels
+ * with the original one. Hash codes of the levels and of the whole stratification are cached.
+ */
+public final class PersistentStratification implements Iterable<Set<Clause>> {
+
+    public final static PersistentStratification EMPTY = new PersistentStratification(null);
+
+    private final Node root;
+
+    private PersistentStratification(Node root){
+        this.root = root;
+    }
+
+    public static PersistentStratification fromLevels(List<? extends Collection<Clause>> levels){
+        List<Level> l = new ArrayList<Level>();
+        for (Collection<Clause> level : levels){
+            l.add(new Level(level));
+        }
+        return new PersistentStratification(build(l, 0, l.size()));
+    }
+
+    private static Node build(List<Level> levels, int from, int to){
+        if (from >= to){
+            return null;
+        }
+        int mid = (from+to)/2;
+        return new Node(build(levels, from, mid), levels.get(mid), build(levels, mid+1, to));
+    }
+
+    public int size(){
+        return size(this.root);
+    }
+
+    public boolean isEmpty(){
+        return this.root == null;
+    }
+
+    /**
+     *
+     * @param index
+     * @return unmodifiable set of rules at the given level
+     */
+    public Set<Clause> level(int index){
+        return get(this.root, checkIndex(index, this.size())).clauses;
+    }
+
+    public PersistentStratification addToLevel(int index, Clause rule){
+        Level level = get(this.root, checkIndex(index, this.size()));
+        if (level.clauses.contains(rule)){
+            return this;
+        }
+        Set<Clause> newLevel = new HashSet<Clause>(level.clauses);
+        newLevel.add(rule);
+        return new PersistentStratification(set(this.root, index, new Level(newLevel)));
+    }
+
+    public PersistentStratification removeFromLevel(int index, Clause rule){
+        Level level = get(this.root, checkIndex(index, this.size()));
+        if (!level.clauses.contains(rule)){
+            return this;
+        }
+        Set<Clause> newLevel = new HashSet<Clause>(level.clauses);
+        newLevel.remove(rule);
+        return new PersistentStratification(set(this.root, index, new Level(newLevel)));
+    }
+
+    /**
+     *
+     * @param index position of the new level, the levels at positions index, index+1,... are shifted up
+     * @param level
+     * @return
+     */
+    public PersistentStratification insertLevel(int index, Collection<Clause> level){
+        return new PersistentStratification(insert(this.root, checkIndex(index, this.size()+1), new Level(level)));
+    }
+
+    public PersistentStratification removeLevel(int index){
+        return new PersistentStratification(remove(this.root, checkIndex(index, this.size())));
+    }
+
+    /**
+     * Removes the rule from all levels, levels which become empty are removed.
+     * @param rule
+     * @return
+     */
+    public PersistentStratification remove(Clause rule){
+        PersistentStratification retVal = this;
+        for (int i = retVal.size()-1; i >= 0; i--){
+            Set<Clause> level = retVal.level(i);
+            if (level.contains(rule)){
+                if (level.size() == 1){
+                    retVal = retVal.removeLevel(i);
+                } else {
+                    retVal = retVal.removeFromLevel(i, rule);
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     *
+     * @return levels sorted from the lowest to the highest necessity, the levels are shared (and unmodifiable)
+     */
+    public List<Set<Clause>> toLevelList(){
+        List<Set<Clause>> retVal = new ArrayList<Set<Clause>>(this.size());
+        collect(this.root, retVal);
+        return retVal;
+    }
+
+    public PossibilisticLogicTheory toTheory(){
+        return PossibilisticLogicTheory.fromStratification(this);
+    }
+
+    @Override
+    public Iterator<Set<Clause>> iterator(){
+        return this.toLevelList().iterator();
+    }
+
+    @Override
+    public int hashCode(){
+        return hash(this.root);
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if (o instanceof PersistentStratification){
+            PersistentStratification ps = (PersistentStratification)o;
+            if (ps.root == this.root){
+                return true;
+            }
+            if (ps.size() != this.size() || ps.hashCode() != this.hashCode()){
+                return false;
+            }
+            List<Set<Clause>> l1 = this.toLevelList(), l2 = ps.toLevelList();
+            for (int i = 0; i < l1.size(); i++){
+                if (l1.get(i) != l2.get(i) && !l1.get(i).equals(l2.get(i))){
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString(){
+        return this.toLevelList().toString();
+    }
+
+    private static int checkIndex(int index, int size){
+        if (index < 0 || index >= size){
+            throw new IndexOutOfBoundsException("Index: "+index+", size: "+size);
+        }
+        return index;
+    }
+
+    private static int size(Node node){
+        return node == null ? 0 : node.size;
+    }
+
+    private static int height(Node node){
+        return node == null ? 0 : node.height;
+    }
+
+    private static int hash(Node node){
+        return node == null ? 0 : node.hash;
+    }
+
+    private static int pow(Node node){
+        return node == null ? 1 : node.pow;
+    }
+
+    private static Level get(Node node, int index){
+        while (true){
+            int leftSize = size(node.left);
+            if (index < leftSize){
+                node = node.left;
+            } else if (index == leftSize){
+                return node.level;
+            } else {
+                index -= leftSize+1;
+                node = node.right;
+            }
+        }
+    }
+
+    private static Node set(Node node, int index, Level level){
+        int leftSize = size(node.left);
+        if (index < leftSize){
+            return new Node(set(node.left, index, level), node.level, node.right);
+        } else if (index == leftSize){
+            return new Node(node.left, level, node.right);
+        } else {
+            return new Node(node.left, node.level, set(node.right, index-leftSize-1, level));
+        }
+    }
+
+    private static Node insert(Node node, int index, Level level){
+        if (node == null){
+            return new Node(null, level, null);
+        }
+        int leftSize = size(node.left);
+        if (index <= leftSize){
+            return balance(insert(node.left, index, level), node.level, node.right);
+        } else {
+            return balance(node.left, node.level, insert(node.right, index-leftSize-1, level));
+        }
+    }
+
+    private static Node remove(Node node, int index){
+        int leftSize = size(node.left);
+        if (index < leftSize){
+            return balance(remove(node.left, index), node.level, node.right);
+        } else if (index > leftSize){
+            return balance(node.left, node.level, remove(node.right, index-leftSize-1));
+        } else if (node.left == null){
+            return node.right;
+        } else if (node.right == null){
+            return node.left;
+        } else {
+            return balance(node.left, get(node.right, 0), remove(node.right, 0));
+        }
+    }
+
+    private static Node balance(Node left, Level level, Node right){
+        int hl = height(left), hr = height(right);
+        if (hl > hr+1){
+            if (height(left.left) >= height(left.right)){
+                return new Node(left.left, left.level, new Node(left.right, level, right));
+            } else {
+                Node lr = left.right;
+                return new Node(new Node(left.left, left.level, lr.left), lr.level, new Node(lr.right, level, right));
+            }
+        } else if (hr > hl+1){
+            if (height(right.right) >= height(right.left)){
+                return new Node(new Node(left, level, right.left), right.level, right.right);
+            } else {
+                Node rl = right.left;
+                return new Node(new Node(left, level, rl.left), rl.level, new Node(rl.right, right.level, right.right));
+            }
+        }
+        return new Node(left, level, right);
+    }
+
+    private static void collect(Node node, List<Set<Clause>> list){
+        if (node != null){
+            collect(node.left, list);
+            list.add(node.level.clauses);
+            collect(node.right, list);
+        }
+    }
+
+    private static class Node {
+
+        private final Node left, right;
+
+        private final Level level;
+
+        private final int size, height, hash, pow;
+
+        private Node(Node left, Level level, Node right){
+            this.left = left;
+            this.level = level;
+            this.right = right;
+            this.size = size(left)+size(right)+1;
+            this.height = Math.max(height(left), height(right))+1;
+            //polynomial hash of the sequence of levels: hash(a ++ b) = hash(a)*31^|b| + hash(b)
+            this.hash = (hash(left)*31+level.hash)*pow(right)+hash(right);
+            this.pow = pow(left)*31*pow(right);
+        }
+    }
+
+    private static class Level {
+
+        private final Set<Clause> clauses;
+
+        private final int hash;
+
+        private Level(Collection<Clause> clauses){
+            this.clauses = Collections.unmodifiableSet(new HashSet<Clause>(clauses));
+            this.hash = this.clauses.hashCode();
+        }
+    }
+}
@@ -15,10 +15,10 @@ import ida.ilp.logic.Literal;
 import ida.ilp.logic.LogicUtils;
 import ida.utils.Cache;
 import ida.utils.Sugar;
-import ida.utils.VectorUtils;
 import ida.utils.collections.MultiMap;
 import ida.utils.tuples.Pair;
 import supertweety.logic.GroundTheorySolver;
+import supertweety.logic.SubsumptionIndex;
 import supertweety.logic.TheorySolver;
 import supertweety.misc.Utils;
 
@@ -35,6 +35,10 @@ public class PossibilisticLogicTheory {
 
     private MultiMap<Double, Clause> rules = new MultiMap<Double, Clause>();
 
+    //levels shared with the persistent stratification from which the theory was created (then rules is null),
+    //the rules are copied into the multimap only when the theory is modified or compared
+    private TreeMap<Double,Set<Clause>> sharedLevels;
+
     //private int hashCode = -1;
 
     private Boolean isGround = null;
@@ -45,13 +49,35 @@ public class PossibilisticLogicTheory {
 
     private final static Set<Literal> NIL_SOLUTION = new HashSet<Literal>();
 
+    private final static Cache<Pair<TheoryComponents.Fingerprint,Set<Literal>>,TheoryComponents.ComponentSolution> componentCache = new Cache<Pair<TheoryComponents.Fingerprint,Set<Literal>>,TheoryComponents.ComponentSolution>();
+
+    private final static TheoryComponents.ComponentSolution NIL_COMPONENT_SOLUTION = new TheoryComponents.ComponentSolution(NIL_SOLUTION, -1);
+
+    //connected components of the theory, built lazily and then maintained by the methods modifying the theory
+    private TheoryComponents components;
+
+    //levels as an immutable stratification, built lazily and invalidated by the methods modifying the levels
+    private PersistentStratification stratification;
+
+    //dense array representation of the levels with views of the cuts, built lazily and invalidated by any modification
+    private volatile DenseLevels denseLevels;
+
+    //index of the rules (without hard rules) for subsumption queries, built lazily and then maintained
+    private volatile SubsumptionIndex subsumptionIndex;
+
     private Set<Literal> additionalElementsOfUniverse = new HashSet<Literal>();
 
     public PossibilisticLogicTheory copy(){
         PossibilisticLogicTheory retVal = new PossibilisticLogicTheory();
         retVal.hardRules.addAll(this.hardRules);
         retVal.weights.addAll(this.weights);
-        retVal.rules.putAll(this.rules);
+        if (this.sharedLevels != null){
+            retVal.rules = null;
+            retVal.sharedLevels = this.sharedLevels;
+            retVal.stratification = this.stratification;
+        } else {
+            retVal.rules.putAll(this.rules);
+        }
         retVal.isGround = this.isGround;
         retVal.additionalElementsOfUniverse.addAll(this.additionalElementsOfUniverse);
         return retVal;
@@ -70,7 +96,7 @@ public class PossibilisticLogicTheory {
     public PossibilisticLogicTheory(MultiMap<Double, Clause> rules, Set<Clause> hardRules) {
         this.set(rules);
         if (hardRules != null) {
-            this.hardRules = hardRules;
+            this.hardRules.addAll(hardRules);
         }
     }
 
@@ -81,7 +107,7 @@ public class PossibilisticLogicTheory {
         }
         this.set(mm);
         if (hardRules != null){
-            this.hardRules = hardRules;
+            this.hardRules.addAll(hardRules);
         }
     }
 
@@ -110,6 +136,77 @@ public class PossibilisticLogicTheory {
         return new PossibilisticLogicTheory(rules, hardRules);
     }
 
+    public static PossibilisticLogicTheory fromStratification(PersistentStratification stratification){
+        return fromStratification(stratification, new HashSet<Clause>());
+    }
+
+    /**
+     * Creates a theory with the same weights as fromStratification(stratification.toLevelList(), hardRules) which shares
+     * the levels with the stratification, they are copied only if the theory gets modified.
+     * @param stratification
+     * @param hardRules
+     * @return
+     */
+    public static PossibilisticLogicTheory fromStratification(PersistentStratification stratification, Set<Clause> hardRules){
+        TreeMap<Double,Set<Clause>> levels = new TreeMap<Double,Set<Clause>>();
+        List<Set<Clause>> levelList = stratification.toLevelList();
+        double d = levelList.size()+1;
+        for (int i = 0; i < levelList.size(); i++){
+            if (!levelList.get(i).isEmpty()){
+                levels.put((i+1)/d, levelList.get(i));
+            }
+        }
+        PossibilisticLogicTheory retVal = new PossibilisticLogicTheory();
+        retVal.share(levels, levels.size() == levelList.size() ? stratification : null);
+        if (hardRules != null){
+            retVal.hardRules.addAll(hardRules);
+        }
+        return retVal;
+    }
+
+    private void share(TreeMap<Double,Set<Clause>> levels, PersistentStratification stratification){
+        this.rules = null;
+        this.sharedLevels = levels;
+        this.weights.addAll(levels.keySet());
+        this.stratification = stratification;
+    }
+
+    /**
+     *
+     * @return the rules as a modifiable multimap, shared levels are copied into it
+     */
+    private synchronized MultiMap<Double,Clause> rules(){
+        if (this.rules == null){
+            MultiMap<Double,Clause> rules = new MultiMap<Double,Clause>();
+            for (Map.Entry<Double,Set<Clause>> entry : this.sharedLevels.entrySet()){
+                rules.putAll(entry.getKey(), entry.getValue());
+            }
+            this.rules = rules;
+        }
+        return this.rules;
+    }
+
+    //the rules are going to be modified
+    private MultiMap<Double,Clause> unshare(){
+        MultiMap<Double,Clause> retVal = this.rules();
+        this.sharedLevels = null;
+        return retVal;
+    }
+
+    private Set<Map.Entry<Double,Set<Clause>>> levelEntries(){
+        TreeMap<Double,Set<Clause>> shared = this.sharedLevels;
+        return shared != null ? shared.entrySet() : this.rules.entrySet();
+    }
+
+    private Set<Clause> level(double weight){
+        TreeMap<Double,Set<Clause>> shared = this.sharedLevels;
+        if (shared != null){
+            Set<Clause> retVal = shared.get(weight);
+            return retVal == null ? Collections.<Clause>emptySet() : retVal;
+        }
+        return this.rules.get(weight);
+    }
+
     public static PossibilisticLogicTheory merge(PossibilisticLogicTheory bottom, PossibilisticLogicTheory top){
         List<Set<Clause>> levels = new ArrayList<Set<Clause>>();
         levels.addAll(bottom.toLevelList());
@@ -118,37 +215,73 @@ public class PossibilisticLogicTheory {
     }
 
     private void set(MultiMap<Double,Clause> rules){
+        MultiMap<Double,Clause> thisRules = this.unshare();
         for (Map.Entry<Double, Set<Clause>> entry : rules.entrySet()) {
             for (Clause c : entry.getValue()) {
-                this.rules.put(entry.getKey(), c);
+                thisRules.put(entry.getKey(), c);
             }
             this.weights.add(entry.getKey());
         }
         this.isGround = null;
+        this.stratification = null;
+        this.denseLevels = null;
+        this.subsumptionIndex = null;
     }
 
     public void addRule(Clause rule, double weight){
-        this.rules.put(weight, rule);
+        MultiMap<Double,Clause> rules = this.unshare();
+        if ((this.components != null || this.subsumptionIndex != null) && !rules.get(weight).contains(rule)){
+            if (this.components != null){
+                this.components.addRule(rule, weight);
+            }
+            if (this.subsumptionIndex != null){
+                this.subsumptionIndex.add(rule);
+            }
+        }
+        rules.put(weight, rule);
         this.weights.add(weight);
+        this.stratification = null;
+        this.denseLevels = null;
         if (!LogicUtils.isGround(rule)){
             this.isGround = Boolean.FALSE;
         }
     }
 
     public void addHardRule(Clause hardRule){
-        this.hardRules.add(hardRule);
+        if (this.hardRules.add(hardRule)){
+            this.denseLevels = null;
+            if (this.components != null){
+                this.components.addHardRule(hardRule);
+            }
+        }
     }
 
     public void remove(Clause rule, double weight){
-        this.rules.remove(weight, rule);
-        if (this.rules.get(weight).isEmpty()){
+        MultiMap<Double,Clause> rules = this.unshare();
+        if ((this.components != null || this.subsumptionIndex != null) && rules.get(weight).contains(rule)){
+            if (this.components != null){
+                this.components.removeRule(rule, weight);
+            }
+            if (this.subsumptionIndex != null){
+                this.subsumptionIndex.remove(rule);
+            }
+        }
+        rules.remove(weight, rule);
+        if (rules.get(weight).isEmpty()){
             this.weights.remove(weight);
         }
         this.isGround = null;
+        this.stratification = null;
+        this.denseLevels = null;
     }
 
     public void removeHardRule(Clause hardRule){
-        this.hardRules.remove(hardRule);
+        if (this.hardRules.remove(hardRule)){
+            this.denseLevels = null;
+            if (this.components != null){
+                this.components.removeHardRule(hardRule);
+            }
+        }
     }
 
     public void remove(Clause rule){
@@ -164,12 +297,20 @@ public class PossibilisticLogicTheory {
     }
 
     public void addAllHardRules(Collection<Clause> hardRules){
-        this.hardRules.addAll(hardRules);
+        for (Clause hardRule : hardRules){
+            this.addHardRule(hardRule);
+        }
     }
 
     public Pair<Set<Literal>,Double> solve(Collection<Literal> evidence){
-        double[] levels = VectorUtils.toDoubleArray(this.rules.keySet());
-        Arrays.sort(levels);
+        if (this.isDecomposable()){
+            return this.solveByComponents(evidence);
+        }
+        double[] descendingLevels = this.denseLevels().weights;
+        double[] levels = new double[descendingLevels.length];
+        for (int i = 0; i < levels.length; i++){
+            levels[i] = descendingLevels[levels.length-1-i];
+        }
         int min = 0;
         int max = levels.length-1;
         Set<Literal> solution = null;
@@ -192,6 +333,180 @@ public class PossibilisticLogicTheory {
         }
     }
 
+    /**
+     * Solves the theory separately in each of its connected components. The inconsistency level of the whole theory
+     * is the maximum of the inconsistency levels of the components (each of which is solved with the part of the evidence
+     * which falls into it) and a model of the whole theory is the union of models of the components. Components
+     * not touched by the evidence are solved only once, results for the touched components are cached by their
+     * content if USE_CACHING is switched on.
+     */
+    private Pair<Set<Literal>,Double> solveByComponents(Collection<Literal> evidence){
+        if (this.weights.isEmpty()){
+            return null;
+        }
+        TheoryComponents components = this.components();
+        Map<TheoryComponents.Component,Set<Literal>> evidenceByComponent = new HashMap<TheoryComponents.Component,Set<Literal>>();
+        Set<Literal> model = new HashSet<Literal>();
+        for (Literal e : evidence){
+            TheoryComponents.Component c = components.componentOf(TheoryComponents.variable(e));
+            if (c == null){
+                //evidence outside the theory
+                if (evidence.contains(e.negation())){
+                    return null;
+                }
+                if (!e.isNegated()){
+                    model.add(e);
+                }
+            } else {
+                Set<Literal> componentEvidence = evidenceByComponent.get(c);
+                if (componentEvidence == null){
+                    evidenceByComponent.put(c, componentEvidence = new HashSet<Literal>());
+                }
+                componentEvidence.add(e);
+            }
+        }
+        double inconsistencyLevel = Double.NEGATIVE_INFINITY;
+        for (TheoryComponents.Component c : components.components()){
+            Set<Literal> componentEvidence = evidenceByComponent.get(c);
+            TheoryComponents.ComponentSolution solution = this.solveComponent(c, componentEvidence == null ? Sugar.<Literal>set() : componentEvidence);
+            if (solution == null){
+                return null;
+            }
+            if (solution.consistentFrom > 0){
+                inconsistencyLevel = Math.max(inconsistencyLevel, c.levels().get(solution.consistentFrom-1));
+            }
+            model.addAll(solution.model);
+        }
+        Double solutionLevel = inconsistencyLevel == Double.NEGATIVE_INFINITY ? this.weights.first() : this.weights.higher(inconsistencyLevel);
+        if (solutionLevel == null){
+            return null;
+        }
+        return new Pair<Set<Literal>,Double>(model, solutionLevel);
+    }
+
+    private TheoryComponents.ComponentSolution solveComponent(TheoryComponents.Component component, Set<Literal> evidence){
+        if (evidence.isEmpty()){
+            synchronized (component){
+                if (!component.isUnconditionallySolved()){
+                    component.setUnconditionalSolution(this.solveComponent_impl(component, evidence));
+                }
+                return component.unconditionalSolution();
+            }
+        }
+        return this.solveComponent_impl(component, evidence);
+    }
+
+    private TheoryComponents.ComponentSolution solveComponent_impl(TheoryComponents.Component component, Set<Literal> evidence){
+        Pair<TheoryComponents.Fingerprint,Set<Literal>> key = null;
+        if (USE_CACHING){
+            key = new Pair<TheoryComponents.Fingerprint,Set<Literal>>(component.fingerprint(), evidence);
+            TheoryComponents.ComponentSolution cachedSolution;
+            synchronized (componentCache){
+                cachedSolution = componentCache.get(key);
+            }
+            if (cachedSolution != null){
+                return cachedSolution == NIL_COMPONENT_SOLUTION ? null : cachedSolution;
+            }
+        }
+        Set<Clause> evidenceClauses = wrapLiteralsToClauses(evidence);
+        int min = 0;
+        int max = component.levels().size();
+        TheoryComponents.ComponentSolution solution = null;
+        while (max >= min){
+            int mid = (min+max)/2;
+            Set<Literal> currentSolution = this.solveSatProblem(Sugar.union(component.cut(mid), evidenceClauses));
+            if (currentSolution != null){
+                max = mid-1;
+                solution = new TheoryComponents.ComponentSolution(currentSolution, mid);
+            } else {
+                min = mid+1;
+            }
+        }
+        if (USE_CACHING){
+            synchronized (componentCache){
+                componentCache.put(key, solution == null ? NIL_COMPONENT_SOLUTION : solution);
+            }
+        }
+        return solution;
+    }
+
+    private boolean isDecomposable(){
+        return this.isGround() && !this.components().containsEmptyClause();
+    }
+
+    private synchronized TheoryComponents components(){
+        if (this.components == null){
+            TheoryComponents tc = new TheoryComponents();
+            for (Map.Entry<Double,Set<Clause>> entry : this.levelEntries()){
+                for (Clause rule : entry.getValue()){
+                    tc.addRule(rule, entry.getKey());
+                }
+            }
+            for (Clause hardRule : this.hardRules){
+                tc.addHardRule(hardRule);
+            }
+            this.components = tc;
+        }
+        return this.components;
+    }
+
+    /**
+     *
+     * @param seed
+     * @return propositional variables (represented by positive literals) connected to the variables of the given literals
+     * through the rules of the theory, including the variables of the seed literals
+     */
+    public Set<Literal> connectedVariables(Iterable<Literal> seed){
+        Set<Literal> retVal = new HashSet<Literal>();
+        for (Literal l : seed){
+            retVal.add(TheoryComponents.variable(l));
+        }
+        for (TheoryComponents.Component c : this.components().touchedBy(seed)){
+            retVal.addAll(c.variables());
+        }
+        return retVal;
+    }
+
+    /**
+     *
+     * @param seed
+     * @return the part of the theory consisting of the connected components which contain the variables of the given literals
+     */
+    public PossibilisticLogicTheory relevantSubtheory(Iterable<Literal> seed){
+        PossibilisticLogicTheory retVal = new PossibilisticLogicTheory();
+        for (TheoryComponents.Component c : this.components().touchedBy(seed)){
+            c.collectRules(retVal);
+        }
+        return retVal;
+    }
+
+    /**
+     *
+     * @param seed
+     * @return key which is equal for two theories iff their relevant subtheories for the seed (see relevantSubtheory)
+     * have the same rules at the same positions in the order of their levels; it is built from the cached fingerprints
+     * of the components, the rules are not copied
+     */
+    public Object relevantSubtheoryKey(Iterable<Literal> seed){
+        Set<TheoryComponents.Component> touched = this.components().touchedBy(seed);
+        TreeSet<Double> levels = new TreeSet<Double>();
+        for (TheoryComponents.Component c : touched){
+            levels.addAll(c.levels());
+        }
+        List<Double> levelList = new ArrayList<Double>(levels);
+        //the fingerprints only keep the order of the levels of each component, so the ranks of their levels
+        //among the levels of all the touched components are added
+        Map<TheoryComponents.Fingerprint,List<Integer>> retVal = new HashMap<TheoryComponents.Fingerprint,List<Integer>>();
+        for (TheoryComponents.Component c : touched){
+            List<Integer> ranks = new ArrayList<Integer>();
+            for (Double level : c.levels()){
+                ranks.add(Collections.binarySearch(levelList, level));
+            }
+            retVal.put(c.fingerprint(), ranks);
+        }
+        return retVal;
+    }
+
     private static double cached = 0, noncached = 0;
 
     private Set<Literal> solveSatProblem(Set<Clause> satProblem){
@@ -262,7 +577,17 @@ public class PossibilisticLogicTheory {
             return false;
         }
 
-        Set<Literal> solution = solveSatProblem(Sugar.union(this.getAlphaCut(aSolutionForEvidence.s), wrapLiteralsToClauses(antecedent), wrapLiteralsToClauses(Utils.flipSigns(consequent).literals())));
+        Collection<Clause> cut;
+        if (this.isDecomposable()){
+            //the other components are consistent at the level aSolutionForEvidence.s and share no variables with the query
+            cut = new ArrayList<Clause>();
+            for (TheoryComponents.Component c : this.components().touchedBy(Sugar.<Literal>iterable(antecedent, consequent.literals()))){
+                cut.addAll(c.cut(aSolutionForEvidence.s));
+            }
+        } else {
+            cut = this.getAlphaCut(aSolutionForEvidence.s);
+        }
+        Set<Literal> solution = solveSatProblem(Sugar.union(cut, wrapLiteralsToClauses(antecedent), wrapLiteralsToClauses(Utils.flipSigns(consequent).literals())));
 //        if (!this.isGround()) {
 //            TheorySolver ts = new TheorySolver();
 //            solution = ts.solve(this.getAlphaCut(aSolutionForEvidence.s), Sugar.union(antecedent, Utils.flipSigns(consequent).literals()));
@@ -279,7 +604,7 @@ public class PossibilisticLogicTheory {
     public boolean isGround(){
         if (this.isGround == null){
             boolean ig = true;
-            outerLoop: for (Map.Entry<Double,Set<Clause>> entry : this.rules.entrySet()){
+            outerLoop: for (Map.Entry<Double,Set<Clause>> entry : this.levelEntries()){
                 for (Clause c : entry.getValue()){
                     if (!LogicUtils.isGround(c)){
                         ig = false;
@@ -308,7 +633,7 @@ public class PossibilisticLogicTheory {
     }
 
     public Set<Literal> solve(double alpha, Collection<Literal> evidence){
-        return solveSatProblem(Sugar.union(this.hardRules, this.getAlphaCut(alpha), wrapLiteralsToClauses(evidence)));
+        return solveSatProblem(Sugar.union(this.getAlphaCut(alpha), wrapLiteralsToClauses(evidence)));
 //        if (this.isGround()){
 //            return new GroundTheorySolver(Sugar.union(this.getAlphaCut(alpha), wrapLiteralsToClauses(evidence))).solve();
 //        } else {
@@ -319,7 +644,7 @@ public class PossibilisticLogicTheory {
     //assuming it is ground
     public Set<Literal> propositionalVariables(){
         Set<Literal> retVal = new HashSet<Literal>();
-        for (Map.Entry<Double,Set<Clause>> entry : this.rules.entrySet()){
+        for (Map.Entry<Double,Set<Clause>> entry : this.levelEntries()){
             for (Clause c : entry.getValue()){
                 for (Literal l : c.literals()){
                     if (l.isNegated()){
@@ -347,6 +672,14 @@ public class PossibilisticLogicTheory {
         this.additionalElementsOfUniverse.add(literal);
     }
 
+    /**
+     *
+     * @return unmodifiable view of the propositional variables added by addAdditionalPropositionalVariable
+     */
+    public Set<Literal> additionalPropositionalVariables(){
+        return Collections.unmodifiableSet(this.additionalElementsOfUniverse);
+    }
+
     private Set<Clause> wrapLiteralsToClauses(Collection<Literal> literals){
         Set<Clause> retVal = new HashSet<Clause>();
         for (Literal l : literals) {
@@ -355,32 +688,43 @@ public class PossibilisticLogicTheory {
         return retVal;
     }
 
+    /**
+     *
+     * @param alpha
+     * @return unmodifiable view of the rules with necessity at least alpha together with the hard rules, the view
+     * is not affected by later modifications of the theory
+     */
     public List<Clause> getAlphaCut(double alpha){
-        List<Clause> retVal = new ArrayList<Clause>();
-        Double higher = new Double(alpha);
-        while (higher != null) {
-            retVal.addAll(rules.get(higher));
-            higher = weights.higher(higher);
-        }
-        retVal.addAll(hardRules);
-        return retVal;
+        DenseLevels dl = this.denseLevels();
+        return dl.cuts.get(dl.countLevels(alpha, false));
     }
 
+    /**
+     *
+     * @param alpha
+     * @return unmodifiable view of the rules with necessity greater than alpha together with the hard rules, the view
+     * is not affected by later modifications of the theory
+     */
     public List<Clause> getStrictAlphaCut(double alpha){
-        List<Clause> retVal = new ArrayList<Clause>();
-        Double higher = new Double(alpha);
-        higher = weights.higher(higher);
-        while (higher != null) {
-            retVal.addAll(rules.get(higher));
-            higher = weights.higher(higher);
-        }
-        retVal.addAll(hardRules);
-        return retVal;
+        DenseLevels dl = this.denseLevels();
+        return dl.cuts.get(dl.countLevels(alpha, true));
+    }
+
+    /**
+     *
+     * @return unmodifiable view of all rules of the theory except the hard rules
+     */
+    public List<Clause> getRules(){
+        DenseLevels dl = this.denseLevels();
+        return new ArrayView(dl.rules, dl.cutEnds[0], dl.rules.length);
     }
 
     public PossibilisticLogicTheory subtheory(double minNecessity){
+        if (this.sharedLevels != null){
+            return this.sharedSubtheory(minNecessity, true);
+        }
         PossibilisticLogicTheory plt = new PossibilisticLogicTheory();
-        for (Map.Entry<Double,Set<Clause>> entry : this.rules.entrySet()){
+        for (Map.Entry<Double,Set<Clause>> entry : this.levelEntries()){
             if (entry.getKey() >= minNecessity){
                 for (Clause rule : entry.getValue()){
                     plt.addRule(rule, entry.getKey());
@@ -392,8 +736,11 @@ public class PossibilisticLogicTheory {
     }
 
     public PossibilisticLogicTheory strictSubtheory(double minNecessity){
+        if (this.sharedLevels != null){
+            return this.sharedSubtheory(minNecessity, false);
+        }
         PossibilisticLogicTheory plt = new PossibilisticLogicTheory();
-        for (Map.Entry<Double,Set<Clause>> entry : this.rules.entrySet()){
+        for (Map.Entry<Double,Set<Clause>> entry : this.levelEntries()){
             if (entry.getKey() > minNecessity){
                 for (Clause rule : entry.getValue()){
                     plt.addRule(rule, entry.getKey());
@@ -404,24 +751,62 @@ public class PossibilisticLogicTheory {
         return plt;
     }
 
+    //subtheory sharing the levels of this theory
+    private PossibilisticLogicTheory sharedSubtheory(double minNecessity, boolean inclusive){
+        TreeMap<Double,Set<Clause>> levels = new TreeMap<Double,Set<Clause>>(this.sharedLevels.tailMap(minNecessity, inclusive));
+        PersistentStratification stratification = this.stratification;
+        if (stratification != null){
+            for (int i = levels.size(); i < this.sharedLevels.size(); i++){
+                stratification = stratification.removeLevel(0);
+            }
+        }
+        PossibilisticLogicTheory plt = new PossibilisticLogicTheory();
+        plt.share(levels, stratification);
+        plt.hardRules.addAll(this.hardRules);
+        return plt;
+    }
+
     /**
      *
      * @return levels of the possibilistic logic theory sorted from smallest necessity to highest necessity.
      */
     public ArrayList<Set<Clause>> toLevelList(){
-        ArrayList<Set<Clause>> retVal = new ArrayList<Set<Clause>>();
-        for (double alpha : this.weights()){
-            retVal.add(Sugar.setFromCollections(getAlphaLevel(alpha)));
+        DenseLevels dl = this.denseLevels();
+        ArrayList<Set<Clause>> retVal = new ArrayList<Set<Clause>>(dl.levels.size());
+        for (int i = dl.levels.size()-1; i >= 0; i--){
+            retVal.add(Sugar.setFromCollections(dl.levels.get(i)));
         }
         return retVal;
     }
 
+    /**
+     *
+     * @return levels of the possibilistic logic theory (without hard rules) as an immutable stratification, which can be
+     * modified cheaply without copying the whole theory.
+     */
+    public PersistentStratification toPersistentStratification(){
+        if (this.stratification == null){
+            this.stratification = PersistentStratification.fromLevels(this.toLevelList());
+        }
+        return this.stratification;
+    }
+
     public Set<Clause> hardRules(){
         return this.hardRules;
     }
 
+    /**
+     *
+     * @param alpha
+     * @return unmodifiable view of the rules with necessity alpha
+     */
     public List<Clause> getAlphaLevel(double alpha){
-        return Sugar.listFromCollections(this.rules.get(alpha));
+        DenseLevels dl = this.denseLevels();
+        int k = dl.countLevels(alpha, false);
+        if (k == 0 || dl.weights[k-1] != alpha){
+            return Collections.<Clause>emptyList();
+        }
+        return dl.levels.get(k-1);
     }
 
     public TreeSet<Double> weights(){
@@ -449,14 +834,14 @@ public class PossibilisticLogicTheory {
 
     @Override
     public int hashCode(){
-        return this.rules.hashCode();
+        return this.rules().hashCode();
     }
 
     @Override
     public boolean equals(Object o){
         if (o instanceof PossibilisticLogicTheory){
             PossibilisticLogicTheory plt = (PossibilisticLogicTheory)o;
-            return plt.rules.equals(this.rules) && plt.hardRules.equals(this.hardRules);
+            return plt.rules().equals(this.rules()) && plt.hardRules.equals(this.hardRules);
         }
         return false;
     }
@@ -494,4 +879,123 @@ public class PossibilisticLogicTheory {
         System.out.println(merge(plt, PossibilisticLogicTheory.fromStratification(Sugar.list(Sugar.<Clause>list(Clause.parse("x(x)"))))));
     }
 
+    /**
+     *
+     * @return index of the rules of the theory (without hard rules) for subsumption queries, it is maintained
+     * when the theory is modified
+     */
+    public SubsumptionIndex subsumptionIndex(){
+        SubsumptionIndex index = this.subsumptionIndex;
+        if (index == null){
+            synchronized (this){
+                if ((index = this.subsumptionIndex) == null){
+                    index = new SubsumptionIndex();
+                    for (Map.Entry<Double,Set<Clause>> entry : this.levelEntries()){
+                        index.addAll(entry.getValue());
+                    }
+                    this.subsumptionIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private DenseLevels denseLevels(){
+        DenseLevels dl = this.denseLevels;
+        if (dl == null){
+            //concurrent readers may build it twice, which is harmless
+            this.denseLevels = dl = new DenseLevels(this);
+        }
+        return dl;
+    }
+
+    /**
+     * Hard rules followed by the levels from the highest to the lowest necessity, stored in one array, so that
+     * every alpha-cut is a prefix of the array.
+     */
+    private static class DenseLevels {
+
+        private final Clause[] rules;
+
+        //necessities of the levels in descending order
+        private final double[] weights;
+
+        //cutEnds[k] = number of hard rules and rules from the k highest levels
+        private final int[] cutEnds;
+
+        //cuts.get(k) = view of the first cutEnds[k] rules
+        private final List<List<Clause>> cuts;
+
+        //levels.get(k) = view of the level with necessity weights[k]
+        private final List<List<Clause>> levels;
+
+        private DenseLevels(PossibilisticLogicTheory plt){
+            int n = plt.weights.size();
+            List<Clause> all = new ArrayList<Clause>(plt.hardRules);
+            this.weights = new double[n];
+            this.cutEnds = new int[n+1];
+            this.cutEnds[0] = all.size();
+            int k = 0;
+            for (double weight : plt.weights.descendingSet()){
+                all.addAll(plt.level(weight));
+                this.weights[k] = weight;
+                this.cutEnds[++k] = all.size();
+            }
+            this.rules = all.toArray(new Clause[all.size()]);
+            this.cuts = new ArrayList<List<Clause>>(n+1);
+            this.levels = new ArrayList<List<Clause>>(n);
+            for (int i = 0; i <= n; i++){
+                this.cuts.add(new ArrayView(this.rules, 0, this.cutEnds[i]));
+                if (i < n){
+                    this.levels.add(new ArrayView(this.rules, this.cutEnds[i], this.cutEnds[i+1]));
+                }
+            }
+        }
+
+        /**
+         *
+         * @param alpha
+         * @param strict
+         * @return number of levels with necessity greater than alpha (strict) or at least alpha (non-strict)
+         */
+        private int countLevels(double alpha, boolean strict){
+            int min = 0;
+            int max = this.weights.length;
+            while (min < max){
+                int mid = (min+max) >>> 1;
+                if (this.weights[mid] > alpha || (!strict && this.weights[mid] == alpha)){
+                    min = mid+1;
+                } else {
+                    max = mid;
+                }
+            }
+            return min;
+        }
+    }
+
+    private static class ArrayView extends AbstractList<Clause> implements RandomAccess {
+
+        private final Clause[] array;
+
+        private final int from, to;
+
+        private ArrayView(Clause[] array, int from, int to){
+            this.array = array;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Clause get(int index){
+            if (index < 0 || index >= this.to-this.from){
+                throw new IndexOutOfBoundsException("Index: "+index+", size: "+this.size());
+            }
+            return this.array[this.from+index];
+        }
+
+        @Override
+        public int size(){
+            return this.to-this.from;
+        }
+    }
 }
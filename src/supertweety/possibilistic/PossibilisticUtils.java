@@ -11,53 +11,92 @@
 package supertweety.possibilistic;
 
 import ida.ilp.logic.Clause;
+import ida.ilp.logic.Constant;
 import ida.ilp.logic.Literal;
+import ida.ilp.logic.LogicUtils;
 import ida.utils.Sugar;
 import ida.utils.collections.MultiMap;
 import ida.utils.tuples.Pair;
 import supertweety.defaults.DefaultRule;
+import supertweety.logic.GroundTheorySolver;
 import supertweety.logic.ModelCounter;
+import supertweety.logic.SubsumptionIndex;
 import supertweety.logic.TheorySolver;
 import supertweety.misc.Utils;
 
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * Created by kuzelkao_cardiff on 09/11/15.
  */
 public class PossibilisticUtils {
 
+    /**
+     * Removes from every clause the negations of unit clauses from the same or higher levels, repeatedly
+     * until nothing changes. The propagation proceeds in rounds, each round uses only the unit clauses derived in
+     * the previous round (the older ones have already been propagated) and finds the affected clauses using
+     * occurrence lists.
+     * @param plt
+     * @return
+     */
     public static PossibilisticLogicTheory simplifyByUnitPropagation(PossibilisticLogicTheory plt){
         List<Set<Clause>> levels = plt.toLevelList();
         List<Double> weights = new ArrayList<Double>(plt.weights());
-        boolean changed;
-        do {
-            changed = false;
-            for (int i = 0; i < levels.size(); i++){
-                Set<Literal> negatedSingletonsFromUpperLevels = new HashSet<Literal>();
-                for (int j = i; j < levels.size(); j++){
-                    for (Clause c : levels.get(j)){
-                        if (c.countLiterals() == 1){
-                            negatedSingletonsFromUpperLevels.add(Sugar.chooseOne(c.literals()).negation());
+        MultiMap<Literal,Pair<Clause,Integer>> occurrences = new MultiMap<Literal,Pair<Clause,Integer>>();
+        List<Pair<Literal,Integer>> newUnits = new ArrayList<Pair<Literal,Integer>>();
+        for (int i = 0; i < levels.size(); i++){
+            for (Clause c : levels.get(i)){
+                addOccurrences(c, i, occurrences);
+                if (c.countLiterals() == 1){
+                    newUnits.add(new Pair<Literal,Integer>(Sugar.chooseOne(c.literals()), i));
+                }
+            }
+        }
+        while (!newUnits.isEmpty()){
+            //all clauses are simplified w.r.t. the state from the end of the previous round
+            Map<Pair<Clause,Integer>,Set<Literal>> toBeRemoved = new HashMap<Pair<Clause,Integer>,Set<Literal>>();
+            for (Pair<Literal,Integer> unit : newUnits){
+                Literal negated = unit.r.negation();
+                for (Pair<Clause,Integer> occurrence : occurrences.get(negated)){
+                    if (occurrence.s <= unit.s){
+                        Set<Literal> literals = toBeRemoved.get(occurrence);
+                        if (literals == null){
+                            toBeRemoved.put(occurrence, literals = new HashSet<Literal>());
                         }
+                        literals.add(negated);
                     }
                 }
-                Set<Clause> newLevelI = new HashSet<Clause>();
-                for (Clause c : levels.get(i)){
-                    if (!Sugar.intersection(c.literals(), negatedSingletonsFromUpperLevels).isEmpty()){
-                        newLevelI.add(new Clause(Sugar.setDifference(c.literals(), negatedSingletonsFromUpperLevels)));
-                        changed = true;
-                    } else {
-                        newLevelI.add(c);
+            }
+            for (Pair<Clause,Integer> occurrence : toBeRemoved.keySet()){
+                levels.get(occurrence.s).remove(occurrence.r);
+                for (Literal l : occurrence.r.literals()){
+                    occurrences.remove(l, occurrence);
+                }
+            }
+            newUnits = new ArrayList<Pair<Literal,Integer>>();
+            for (Map.Entry<Pair<Clause,Integer>,Set<Literal>> entry : toBeRemoved.entrySet()){
+                int level = entry.getKey().s;
+                Clause simplified = new Clause(Sugar.setDifference(entry.getKey().r.literals(), entry.getValue()));
+                if (levels.get(level).add(simplified)){
+                    addOccurrences(simplified, level, occurrences);
+                    if (simplified.countLiterals() == 1){
+                        newUnits.add(new Pair<Literal,Integer>(Sugar.chooseOne(simplified.literals()), level));
                     }
                 }
-                levels.set(i, newLevelI);
             }
-        } while (changed);
+        }
         return PossibilisticLogicTheory.fromStratification(levels, weights, plt.hardRules());
     }
 
+    private static void addOccurrences(Clause c, int level, MultiMap<Literal,Pair<Clause,Integer>> occurrences){
+        Pair<Clause,Integer> occurrence = new Pair<Clause,Integer>(c, level);
+        for (Literal l : c.literals()){
+            occurrences.put(l, occurrence);
+        }
+    }
+
     public static PossibilisticLogicTheory simplifyByResolution(PossibilisticLogicTheory plt){
         List<Set<Clause>> levels = plt.toLevelList();
         List<Double> weights = new ArrayList<Double>(plt.weights());
@@ -129,63 +168,309 @@ public class PossibilisticUtils {
     public static PossibilisticLogicTheory removeImpliedRules(PossibilisticLogicTheory possibilisticLogicTheory){
         PossibilisticLogicTheory filtered = new PossibilisticLogicTheory();
         filtered.addAllHardRules(possibilisticLogicTheory.hardRules());
-        for (double alpha : Sugar.listFromCollections(possibilisticLogicTheory.weights())){
+        //the levels are processed from the top, so that the index can be filled with the strict alpha-cut incrementally
+        SubsumptionIndex strictAlphaCutIndex = new SubsumptionIndex(possibilisticLogicTheory.hardRules());
+        boolean groundStrictAlphaCut = isGroundWithoutSpecialPredicates(possibilisticLogicTheory.hardRules());
+        for (double alpha : Sugar.listFromCollections(possibilisticLogicTheory.weights().descendingSet())){
             List<Clause> strictAlphaCut = possibilisticLogicTheory.getStrictAlphaCut(alpha);
             Set<Clause> alphaLevel = Sugar.setFromCollections(possibilisticLogicTheory.getAlphaLevel(alpha));
-            Map<Clause,Integer> clauseLengths = new HashMap<Clause,Integer>();
-            for (Clause c : alphaLevel){
-                clauseLengths.put(c, c.countLiterals());
-            }
-            for (Clause c : Sugar.sortDesc(Sugar.listFromCollections(alphaLevel), clauseLengths)){
-                if (isImplied(c, alphaLevel, strictAlphaCut)){
+            boolean groundAlphaLevel = isGroundWithoutSpecialPredicates(alphaLevel);
+            Set<Clause> subsumed = groundAlphaLevel && groundStrictAlphaCut ? subsumedClauses(alphaLevel, strictAlphaCutIndex) : Collections.<Clause>emptySet();
+            for (Clause c : sortByLengthDesc(alphaLevel)){
+                if (subsumed.contains(c) || isImplied(c, alphaLevel, strictAlphaCut)){
                     alphaLevel.remove(c);
                 } else {
                     filtered.addRule(c, alpha);
                 }
             }
+            strictAlphaCutIndex.addAll(possibilisticLogicTheory.getAlphaLevel(alpha));
+            groundStrictAlphaCut &= groundAlphaLevel;
+        }
+        return filtered;
+    }
+
+    /**
+     * Gives the same result as removeImpliedRules. The clauses of each level are first tested in parallel against
+     * the whole level. Since the level only shrinks, clauses not implied by the whole level are never removed.
+     * The clauses which are implied by it are then processed sequentially in the original order and re-tested
+     * if some clause has already been removed from the level.
+     * @param possibilisticLogicTheory
+     * @return
+     */
+    public static PossibilisticLogicTheory removeImpliedRules_parallelized(PossibilisticLogicTheory possibilisticLogicTheory){
+        PossibilisticLogicTheory filtered = new PossibilisticLogicTheory();
+        filtered.addAllHardRules(possibilisticLogicTheory.hardRules());
+        SubsumptionIndex strictAlphaCutIndex = new SubsumptionIndex(possibilisticLogicTheory.hardRules());
+        boolean groundStrictAlphaCut = isGroundWithoutSpecialPredicates(possibilisticLogicTheory.hardRules());
+        for (double alpha : Sugar.listFromCollections(possibilisticLogicTheory.weights().descendingSet())){
+            final List<Clause> strictAlphaCut = possibilisticLogicTheory.getStrictAlphaCut(alpha);
+            final Set<Clause> originalAlphaLevel = Sugar.setFromCollections(possibilisticLogicTheory.getAlphaLevel(alpha));
+            List<Clause> sorted = sortByLengthDesc(originalAlphaLevel);
+            boolean groundAlphaLevel = isGroundWithoutSpecialPredicates(originalAlphaLevel);
+            if (!groundAlphaLevel || !groundStrictAlphaCut){
+                Set<Clause> alphaLevel = Sugar.setFromCollections(originalAlphaLevel);
+                for (Clause c : sorted){
+                    if (isImplied(c, alphaLevel, strictAlphaCut)){
+                        alphaLevel.remove(c);
+                    } else {
+                        filtered.addRule(c, alpha);
+                    }
+                }
+            } else {
+                Set<Clause> subsumed = subsumedClauses(originalAlphaLevel, strictAlphaCutIndex);
+                List<Callable<List<Clause>>> tasks = new ArrayList<Callable<List<Clause>>>();
+                for (final List<Clause> chunk : Sugar.splitList(Sugar.listDifference(sorted, subsumed), Globals.processors)){
+                    tasks.add(new Callable<List<Clause>>() {
+                        @Override
+                        public List<Clause> call() throws Exception {
+                            List<Clause> retVal = new ArrayList<Clause>();
+                            ImplicationChecker checker = new ImplicationChecker(originalAlphaLevel, strictAlphaCut);
+                            for (Clause c : chunk){
+                                if (checker.isImplied(c, originalAlphaLevel)){
+                                    retVal.add(c);
+                                }
+                            }
+                            return retVal;
+                        }
+                    });
+                }
+                Set<Clause> impliedByWholeLevel = new HashSet<Clause>();
+                for (List<Clause> implied : Globals.invokeAll(tasks)){
+                    impliedByWholeLevel.addAll(implied);
+                }
+
+                Set<Clause> alphaLevel = Sugar.setFromCollections(originalAlphaLevel);
+                ImplicationChecker checker = null;
+                boolean removedSome = false;
+                for (Clause c : sorted){
+                    boolean implied = false;
+                    if (subsumed.contains(c)){
+                        implied = true;
+                    } else if (impliedByWholeLevel.contains(c)){
+                        if (!removedSome){
+                            implied = true;
+                        } else {
+                            if (checker == null){
+                                checker = new ImplicationChecker(originalAlphaLevel, strictAlphaCut);
+                            }
+                            implied = checker.isImplied(c, alphaLevel);
+                        }
+                    }
+                    if (implied){
+                        alphaLevel.remove(c);
+                        removedSome = true;
+                    } else {
+                        filtered.addRule(c, alpha);
+                    }
+                }
+            }
+            strictAlphaCutIndex.addAll(originalAlphaLevel);
+            groundStrictAlphaCut &= groundAlphaLevel;
         }
         return filtered;
     }
 
+    /**
+     * The clauses returned by this method are removed by removeImpliedRules without running a SAT solver: a strictly
+     * smaller clause from the level is shorter and therefore still present in the level when the clause is processed.
+     * @param alphaLevel
+     * @param strictAlphaCutIndex
+     * @return clauses from the (ground) level which are subsumed by another clause from the level or by a clause from the strict alpha-cut
+     */
+    private static Set<Clause> subsumedClauses(Collection<Clause> alphaLevel, SubsumptionIndex strictAlphaCutIndex){
+        Set<Clause> retVal = new HashSet<Clause>();
+        SubsumptionIndex alphaLevelIndex = new SubsumptionIndex(alphaLevel);
+        for (Clause c : alphaLevel){
+            if (alphaLevelIndex.containsStrictSubsetOf(c) || strictAlphaCutIndex.containsSubsetOf(c)){
+                retVal.add(c);
+            }
+        }
+        return retVal;
+    }
+
     public static PossibilisticLogicTheory simplifyBySAT(PossibilisticLogicTheory plt){
-        int count = Sugar.flatten(plt.toLevelList()).size();
         PossibilisticLogicTheory filtered = new PossibilisticLogicTheory();
         filtered.addAllHardRules(plt.hardRules());
         for (double alpha : Sugar.listFromCollections(plt.weights())){
             List<Clause> strictAlphaCut = plt.getStrictAlphaCut(alpha);
             Set<Clause> alphaLevel = Sugar.setFromCollections(plt.getAlphaLevel(alpha));
+            filtered.addAll(simplifyLevelBySAT(alphaLevel, strictAlphaCut, null, null), alpha);
+        }
+        return filtered;
+    }
 
-            for (Clause c : Sugar.listFromCollections(alphaLevel)){
-                boolean changed;
-                do {
-                    changed = false;
-                    if (c.countLiterals() > 1) {
-                        for (Literal l : c.literals()) {
-                            Clause shorter = new Clause(Sugar.setDifference(c.literals(), l));
+    /**
+     * Gives the same result as simplifyBySAT. Replacing a clause by a shorter clause implied by the level and
+     * the strict alpha-cut does not change the level logically, so the implication of all the shorter clauses
+     * which can be tried first is tested in parallel against the original level.
+     * @param plt
+     * @return
+     */
+    public static PossibilisticLogicTheory simplifyBySAT_parallelized(PossibilisticLogicTheory plt){
+        PossibilisticLogicTheory filtered = new PossibilisticLogicTheory();
+        filtered.addAllHardRules(plt.hardRules());
+        for (double alpha : Sugar.listFromCollections(plt.weights())){
+            final List<Clause> strictAlphaCut = plt.getStrictAlphaCut(alpha);
+            final Set<Clause> alphaLevel = Sugar.setFromCollections(plt.getAlphaLevel(alpha));
+            if (!isGroundWithoutSpecialPredicates(alphaLevel) || !isGroundWithoutSpecialPredicates(strictAlphaCut)){
+                filtered.addAll(simplifyLevelBySAT(alphaLevel, strictAlphaCut, null, null), alpha);
+                continue;
+            }
+            Set<Clause> shorterClauses = new LinkedHashSet<Clause>();
+            for (Clause c : alphaLevel){
+                if (c.countLiterals() > 1){
+                    for (Literal l : c.literals()){
+                        shorterClauses.add(new Clause(Sugar.setDifference(c.literals(), l)));
+                    }
+                }
+            }
+            List<Callable<Map<Clause,Boolean>>> tasks = new ArrayList<Callable<Map<Clause,Boolean>>>();
+            for (final List<Clause> chunk : Sugar.splitList(new ArrayList<Clause>(shorterClauses), Globals.processors)){
+                tasks.add(new Callable<Map<Clause,Boolean>>() {
+                    @Override
+                    public Map<Clause,Boolean> call() throws Exception {
+                        Map<Clause,Boolean> retVal = new HashMap<Clause,Boolean>();
+                        ImplicationChecker checker = new ImplicationChecker(alphaLevel, strictAlphaCut);
+                        for (Clause shorter : chunk){
+                            retVal.put(shorter, checker.isImplied(shorter));
+                        }
+                        return retVal;
+                    }
+                });
+            }
+            Map<Clause,Boolean> implied = new HashMap<Clause,Boolean>();
+            for (Map<Clause,Boolean> chunkImplied : Globals.invokeAll(tasks)){
+                implied.putAll(chunkImplied);
+            }
+            filtered.addAll(simplifyLevelBySAT(Sugar.setFromCollections(alphaLevel), strictAlphaCut, implied, new ImplicationChecker(alphaLevel, strictAlphaCut)), alpha);
+        }
+        return filtered;
+    }
+
+    /**
+     *
+     * @param alphaLevel the level, it is modified by this method
+     * @param strictAlphaCut
+     * @param implied precomputed results of implication tests against the original level (or null)
+     * @param checker checker for the original level used when the result is not precomputed (or null)
+     * @return the simplified level
+     */
+    private static Set<Clause> simplifyLevelBySAT(Set<Clause> alphaLevel, Collection<Clause> strictAlphaCut, Map<Clause,Boolean> implied, ImplicationChecker checker){
+        for (Clause c : Sugar.listFromCollections(alphaLevel)){
+            boolean changed;
+            do {
+                changed = false;
+                if (c.countLiterals() > 1) {
+                    for (Literal l : Sugar.listFromCollections(c.literals())) {
+                        if (!c.containsLiteral(l)){
+                            continue;
+                        }
+                        Clause shorter = new Clause(Sugar.setDifference(c.literals(), l));
+                        boolean isImplied;
+                        if (alphaLevel.contains(shorter)){
+                            //c is subsumed by a clause from the level
+                            isImplied = true;
+                        } else if (implied != null && implied.containsKey(shorter)){
+                            isImplied = implied.get(shorter);
+                        } else if (checker != null){
+                            isImplied = checker.isImplied(shorter);
+                        } else {
                             alphaLevel.add(shorter);
-                            boolean implied = isImplied(shorter, alphaLevel, strictAlphaCut);
+                            isImplied = isImplied(shorter, alphaLevel, strictAlphaCut);
                             alphaLevel.remove(shorter);
-                            if (implied) {
-                                Sugar.replace(alphaLevel, c, shorter);
-                                c = shorter;
-                                changed = true;
-                            }
+                        }
+                        if (isImplied) {
+                            Sugar.replace(alphaLevel, c, shorter);
+                            c = shorter;
+                            changed = true;
                         }
                     }
-                } while (changed);
-                //System.out.println("Remaining to process: "+(count-(++i)));
+                }
+            } while (changed);
+        }
+        return alphaLevel;
+    }
+
+    private static List<Clause> sortByLengthDesc(Collection<Clause> clauses){
+        Map<Clause,Integer> clauseLengths = new HashMap<Clause,Integer>();
+        for (Clause c : clauses){
+            clauseLengths.put(c, c.countLiterals());
+        }
+        return Sugar.sortDesc(Sugar.listFromCollections(clauses), clauseLengths);
+    }
+
+    private static boolean isGroundWithoutSpecialPredicates(Collection<Clause> clauses){
+        for (Clause c : clauses){
+            if (!LogicUtils.isGround(c)){
+                return false;
+            }
+            for (Literal l : c.literals()){
+                if (l.predicate().startsWith("@")){
+                    return false;
+                }
             }
-            filtered.addAll(alphaLevel, alpha);
         }
-        return filtered;
+        return true;
+    }
+
+    /**
+     * Incremental SAT solver holding a level and a strict alpha-cut. Every clause from the level is guarded
+     * by a selector literal, so implication by any subset of the level can be tested using assumptions.
+     * Only for ground theories without special predicates.
+     */
+    private static class ImplicationChecker {
+
+        private final GroundTheorySolver solver;
+
+        private final Map<Clause,Literal> selectors = new HashMap<Clause,Literal>();
+
+        private ImplicationChecker(Collection<Clause> alphaLevel, Collection<Clause> strictAlphaCut){
+            List<Clause> theory = new ArrayList<Clause>(strictAlphaCut);
+            for (Clause c : alphaLevel){
+                Literal selector = new Literal("@selector", Constant.construct(String.valueOf(this.selectors.size())));
+                this.selectors.put(c, selector);
+                theory.add(new Clause(Sugar.union(c.literals(), selector.negation())));
+            }
+            this.solver = new GroundTheorySolver(theory);
+        }
+
+        /**
+         *
+         * @param clause
+         * @return true if the clause is implied by the whole level and the strict alpha-cut
+         */
+        private boolean isImplied(Clause clause){
+            return this.isImplied(clause, this.selectors.keySet(), null);
+        }
+
+        /**
+         *
+         * @param clause
+         * @param alphaLevel subset of the level given in the constructor
+         * @return true if the clause is implied by alphaLevel without the clause itself and the strict alpha-cut
+         */
+        private boolean isImplied(Clause clause, Collection<Clause> alphaLevel){
+            return this.isImplied(clause, alphaLevel, clause);
+        }
+
+        private boolean isImplied(Clause clause, Collection<Clause> alphaLevel, Clause excluded){
+            List<Literal> assumptions = new ArrayList<Literal>();
+            for (Clause c : alphaLevel){
+                if (!c.equals(excluded)){
+                    assumptions.add(this.selectors.get(c));
+                }
+            }
+            for (Literal l : clause.literals()){
+                assumptions.add(l.negation());
+            }
+            return this.solver.solve(assumptions) == null;
+        }
     }
 
     private static int sizeInLiterals(PossibilisticLogicTheory plt){
         int retVal = 0;
-        for (Set<Clause> level : plt.toLevelList()){
-            for (Clause c : level){
-                retVal += c.countLiterals();
-            }
+        for (Clause c : plt.getRules()){
+            retVal += c.countLiterals();
         }
         return retVal;
     }
@@ -204,7 +489,7 @@ public class PossibilisticUtils {
             List<Set<Clause>> levels = plt.toLevelList();
             Set<Clause> merged = Sugar.setFromCollections(levels.get(levels.size()-1), levels.get(levels.size()-2));
             PossibilisticLogicTheory auxPlt = PossibilisticLogicTheory.fromStratification(Sugar.<Set<Clause>>list(merged), plt.hardRules());
-            auxPlt = simplifyBySAT(removeImpliedRules(simplifyByResolution(simplifyByUnitPropagation(auxPlt))));
+            auxPlt = simplifyBySAT_parallelized(removeImpliedRules_parallelized(simplifyByResolution(simplifyByUnitPropagation(auxPlt))));
 
             if (recomputeWeights) {
                 List<Double> log2modelCounts = log2ModelCountsOfCuts(PossibilisticLogicTheory.fromStratification(Sugar.<Set<Clause>>list(levels.get(levels.size() - 2), levels.get(levels.size() - 1))));
@@ -226,42 +511,169 @@ public class PossibilisticUtils {
         return plt;
     }
 
+    /**
+     * Repeatedly merges the two adjacent levels whose merging has the smallest KL-divergence cost until the theory
+     * has at most maxSizeInLiterals literals. The model counts of the cuts are computed once and then only the count
+     * of the merged cut is recomputed, the costs of the merges are kept in a priority queue and recomputed only
+     * for the pairs of levels next to the merged one. Model counts are normalized to the set of all propositional
+     * variables of the theory, so that counts of cuts with different variables can be compared.
+     * @param plt
+     * @param maxSizeInLiterals
+     * @return
+     */
     public static PossibilisticLogicTheory collapseKL(PossibilisticLogicTheory plt, int maxSizeInLiterals){
+        int size = sizeInLiterals(plt);
+        if (size <= maxSizeInLiterals || plt.weights().size() <= 1){
+            return plt;
+        }
+        ModelCounter modelCounter = Globals.modelCounterFactory.newInstance();
+        int universeSize = plt.propositionalVariables().size();
+
+        //levels from the top, so that the variables of the cuts can be collected incrementally
+        CollapsedLevel top = null;
+        CollapsedLevel bottom = null;
+        Set<Literal> variablesOfCut = propositionalVariables(plt.hardRules());
+        int ordinal = plt.weights().size();
+        for (double alpha : plt.weights().descendingSet()){
+            CollapsedLevel level = new CollapsedLevel(Sugar.setFromCollections(plt.getAlphaLevel(alpha)), alpha, --ordinal);
+            variablesOfCut.addAll(propositionalVariables(level.rules));
+            level.log2ModelCount = normalizedLog2ModelCount(plt.getAlphaCut(alpha), variablesOfCut.size(), universeSize, modelCounter);
+            if (top == null){
+                top = level;
+            } else {
+                bottom.prev = level;
+                level.next = bottom;
+            }
+            bottom = level;
+        }
+        int numLevels = plt.weights().size();
 
-        while (sizeInLiterals(plt) > maxSizeInLiterals && plt.weights().size() > 1){
-            List<Set<Clause>> levels = plt.toLevelList();
-            List<Double> weights = new ArrayList<Double>(plt.weights());
-            List<Double> log2ModelCountsOfCuts = log2ModelCountsOfCuts(plt);
-            log2ModelCountsOfCuts.add((double)plt.propositionalVariables().size());
-
-            int downIndexToBeMerged = -1;
-            double bestScore = Double.POSITIVE_INFINITY;
-            double selectedP12 = Double.NaN;
-            for (int i = levels.size()-2; i >= 0; i--){
-                double count1 = Math.pow(2, log2ModelCountsOfCuts.get(i+1)-log2ModelCountsOfCuts.get(i));
-                double count2 = Math.pow(2, log2ModelCountsOfCuts.get(i+2)-log2ModelCountsOfCuts.get(i+1));
-                double p1 = 1 - weights.get(weights.size() - 2);
-                double p2 = 1 - weights.get(weights.size() - 1);
-                double p12 = (count1 * p1 + count2 * p2) / (count1 + count2);
-                double klDiv = ((count1*p1 == 0) ? 0 : count1*p1*Math.log(p1/p12)) + ((count2*p2 == 0) ? 0 : count2*p2*Math.log(p2/p12));
-                if (klDiv < bestScore){
-                    downIndexToBeMerged = i;
-                    bestScore = klDiv;
-                    selectedP12 = p12;
-                }
+        PriorityQueue<MergeCandidate> queue = new PriorityQueue<MergeCandidate>();
+        for (CollapsedLevel level = bottom; level.next != null; level = level.next){
+            queue.add(level.updateCandidate(universeSize));
+        }
+
+        while (size > maxSizeInLiterals && numLevels > 1){
+            MergeCandidate best = queue.poll();
+            if (best.lower.candidate != best){
+                //outdated
+                continue;
             }
-            Set<Clause> merged = Sugar.setFromCollections(levels.get(downIndexToBeMerged), levels.get(downIndexToBeMerged+1));
+            CollapsedLevel lower = best.lower;
+            CollapsedLevel upper = lower.next;
+            Set<Clause> merged = Sugar.setFromCollections(lower.rules, upper.rules);
             PossibilisticLogicTheory auxPlt = PossibilisticLogicTheory.fromStratification(Sugar.<Set<Clause>>list(merged), plt.hardRules());
-            auxPlt = simplifyBySAT(removeImpliedRules(simplifyByResolution(simplifyByUnitPropagation(auxPlt))));
+            auxPlt = simplifyBySAT_parallelized(removeImpliedRules_parallelized(simplifyByResolution(simplifyByUnitPropagation(auxPlt))));
+
+            size -= sizeInLiterals(lower.rules)+sizeInLiterals(upper.rules);
+            lower.rules = auxPlt.toLevelList().get(0);
+            lower.weight = 1-best.p12;
+            size += sizeInLiterals(lower.rules);
+            lower.next = upper.next;
+            if (upper.next != null){
+                upper.next.prev = lower;
+            }
+            upper.candidate = null;
+            numLevels--;
 
-            weights.remove(downIndexToBeMerged);
-            weights.set(downIndexToBeMerged, 1-selectedP12);
+            List<Clause> cut = new ArrayList<Clause>(plt.hardRules());
+            for (CollapsedLevel level = lower; level != null; level = level.next){
+                cut.addAll(level.rules);
+            }
+            lower.log2ModelCount = normalizedLog2ModelCount(cut, propositionalVariables(cut).size(), universeSize, modelCounter);
 
-            levels.remove(downIndexToBeMerged);
-            levels.set(downIndexToBeMerged, auxPlt.toLevelList().get(0));
-            plt = PossibilisticLogicTheory.fromStratification(levels, weights, plt.hardRules());
+            //only the costs of merges involving the counts or weights of the merged level change
+            for (CollapsedLevel level = lower.prev != null && lower.prev.prev != null ? lower.prev.prev : (lower.prev != null ? lower.prev : lower);
+                 level != null && level != lower.next; level = level.next){
+                if (level.next == null){
+                    level.candidate = null;
+                } else {
+                    queue.add(level.updateCandidate(universeSize));
+                }
+            }
+        }
+
+        List<Set<Clause>> levels = new ArrayList<Set<Clause>>();
+        List<Double> weights = new ArrayList<Double>();
+        for (CollapsedLevel level = bottom; level != null; level = level.next){
+            levels.add(level.rules);
+            weights.add(level.weight);
+        }
+        return PossibilisticLogicTheory.fromStratification(levels, weights, plt.hardRules());
+    }
+
+    private static double normalizedLog2ModelCount(Collection<Clause> cut, int numVariablesOfCut, int universeSize, ModelCounter modelCounter){
+        try {
+            BigInteger modelCount = modelCounter.modelCount(cut);
+            return Sugar.logBigInteger(modelCount)/Math.log(2)+(universeSize-numVariablesOfCut);
+        } catch (Exception e){
+            throw new RuntimeException("Something went wrong when trying to run the model counter! ",e);
+        }
+    }
+
+    private static int sizeInLiterals(Collection<Clause> rules){
+        int retVal = 0;
+        for (Clause c : rules){
+            retVal += c.countLiterals();
+        }
+        return retVal;
+    }
+
+    private static class CollapsedLevel {
+
+        private Set<Clause> rules;
+
+        private double weight;
+
+        //log2 of the number of models of the cut starting at this level
+        private double log2ModelCount;
+
+        //position in the original theory, used to break ties in the same way as the original greedy search
+        private final int ordinal;
+
+        private CollapsedLevel prev, next;
+
+        //the current merge candidate for this level and the next one
+        private MergeCandidate candidate;
+
+        private CollapsedLevel(Set<Clause> rules, double weight, int ordinal){
+            this.rules = rules;
+            this.weight = weight;
+            this.ordinal = ordinal;
+        }
+
+        private MergeCandidate updateCandidate(int universeSize){
+            double upperLog2ModelCount = this.next.next == null ? universeSize : this.next.next.log2ModelCount;
+            double count1 = Math.pow(2, this.next.log2ModelCount-this.log2ModelCount);
+            double count2 = Math.pow(2, upperLog2ModelCount-this.next.log2ModelCount);
+            double p1 = 1 - this.weight;
+            double p2 = 1 - this.next.weight;
+            double p12 = (count1 * p1 + count2 * p2) / (count1 + count2);
+            double klDiv = ((count1*p1 == 0) ? 0 : count1*p1*Math.log(p1/p12)) + ((count2*p2 == 0) ? 0 : count2*p2*Math.log(p2/p12));
+            return this.candidate = new MergeCandidate(this, klDiv, p12);
+        }
+    }
+
+    private static class MergeCandidate implements Comparable<MergeCandidate> {
+
+        private final CollapsedLevel lower;
+
+        private final double klDiv;
+
+        private final double p12;
+
+        private MergeCandidate(CollapsedLevel lower, double klDiv, double p12){
+            this.lower = lower;
+            this.klDiv = klDiv;
+            this.p12 = p12;
+        }
+
+        @Override
+        public int compareTo(MergeCandidate o) {
+            int cmp = Double.compare(this.klDiv, o.klDiv);
+            //ties are broken in favour of higher levels
+            return cmp != 0 ? cmp : o.lower.ordinal-this.lower.ordinal;
         }
-        return plt;
     }
 
     public static List<Double> log2ModelCountsOfCuts(PossibilisticLogicTheory plt){
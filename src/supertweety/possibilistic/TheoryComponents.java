@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Literal;
+
+import java.util.*;
+
+/**
+ * Connected components of a possibilistic logic theory, i.e. maximal groups of rules which (transitively)
+ * share propositional variables. The components are maintained by union-find over the variables when rules
+ * are added; removing a rule rebuilds only the component which contained it.
+ */
+class TheoryComponents {
+
+    private final Map<Literal,Literal> parents = new HashMap<Literal,Literal>();
+
+    private final Map<Literal,Component> components = new HashMap<Literal,Component>();
+
+    private int emptyClauses = 0;
+
+    public void addRule(Clause rule, double weight){
+        Component component = this.merge(rule);
+        if (component == null){
+            this.emptyClauses++;
+        } else {
+            component.addRule(rule, weight);
+        }
+    }
+
+    public void addHardRule(Clause hardRule){
+        Component component = this.merge(hardRule);
+        if (component == null){
+            this.emptyClauses++;
+        } else {
+            component.hardRules.add(hardRule);
+            component.invalidate();
+        }
+    }
+
+    public void removeRule(Clause rule, double weight){
+        if (rule.countLiterals() == 0){
+            this.emptyClauses--;
+            return;
+        }
+        Component component = this.componentOf(variable(rule.literals().iterator().next()));
+        if (component != null && component.removeRule(rule, weight)){
+            this.rebuild(component);
+        }
+    }
+
+    public void removeHardRule(Clause hardRule){
+        if (hardRule.countLiterals() == 0){
+            this.emptyClauses--;
+            return;
+        }
+        Component component = this.componentOf(variable(hardRule.literals().iterator().next()));
+        if (component != null && component.hardRules.remove(hardRule)){
+            this.rebuild(component);
+        }
+    }
+
+    /**
+     *
+     * @return true if the theory contains an empty clause, which does not belong to any component
+     * (and makes every cut containing it inconsistent).
+     */
+    public boolean containsEmptyClause(){
+        return this.emptyClauses > 0;
+    }
+
+    public Collection<Component> components(){
+        return this.components.values();
+    }
+
+    public Component componentOf(Literal variable){
+        Literal root = this.find(variable);
+        return root == null ? null : this.components.get(root);
+    }
+
+    /**
+     *
+     * @param literals
+     * @return components containing the variables of the given literals, literals whose variables do not appear
+     * in the theory are ignored.
+     */
+    public Set<Component> touchedBy(Iterable<Literal> literals){
+        Set<Component> retVal = new LinkedHashSet<Component>();
+        for (Literal l : literals){
+            Component c = this.componentOf(variable(l));
+            if (c != null){
+                retVal.add(c);
+            }
+        }
+        return retVal;
+    }
+
+    static Literal variable(Literal literal){
+        return literal.isNegated() ? literal.negation() : literal;
+    }
+
+    /**
+     * Read-only, so that the components can be queried concurrently. The trees stay shallow without path
+     * compression on this path because union always attaches the smaller component.
+     */
+    private Literal find(Literal variable){
+        Literal parent = this.parents.get(variable);
+        if (parent == null){
+            return null;
+        }
+        Literal root = variable;
+        while (!parent.equals(root)){
+            root = parent;
+            parent = this.parents.get(root);
+        }
+        return root;
+    }
+
+    //find with path compression, only used when the structure is being modified
+    private Literal findAndCompress(Literal variable){
+        Literal root = this.find(variable);
+        if (root == null){
+            return null;
+        }
+        Literal current = variable;
+        while (!current.equals(root)){
+            Literal next = this.parents.get(current);
+            this.parents.put(current, root);
+            current = next;
+        }
+        return root;
+    }
+
+    private Component merge(Clause clause){
+        Literal root = null;
+        for (Literal l : clause.literals()){
+            Literal variable = variable(l);
+            Literal r = this.findAndCompress(variable);
+            if (r == null){
+                this.parents.put(variable, variable);
+                Component singleton = new Component();
+                singleton.variables.add(variable);
+                this.components.put(variable, singleton);
+                r = variable;
+            }
+            root = root == null ? r : this.union(root, r);
+        }
+        return root == null ? null : this.components.get(root);
+    }
+
+    private Literal union(Literal root1, Literal root2){
+        if (root1.equals(root2)){
+            return root1;
+        }
+        Component c1 = this.components.get(root1);
+        Component c2 = this.components.get(root2);
+        if (c1.variables.size() < c2.variables.size()){
+            Literal auxRoot = root1;
+            root1 = root2;
+            root2 = auxRoot;
+            Component auxComponent = c1;
+            c1 = c2;
+            c2 = auxComponent;
+        }
+        this.parents.put(root2, root1);
+        this.components.remove(root2);
+        c1.absorb(c2);
+        return root1;
+    }
+
+    private void rebuild(Component component){
+        for (Literal variable : component.variables){
+            this.parents.remove(variable);
+            this.components.remove(variable);
+        }
+        for (Map.Entry<Double,Set<Clause>> entry : component.rules.entrySet()){
+            for (Clause rule : entry.getValue()){
+                this.addRule(rule, entry.getKey());
+            }
+        }
+        for (Clause hardRule : component.hardRules){
+            this.addHardRule(hardRule);
+        }
+    }
+
+    static class Component {
+
+        private final Set<Literal> variables = new HashSet<Literal>();
+
+        private final TreeMap<Double,Set<Clause>> rules = new TreeMap<Double,Set<Clause>>();
+
+        private final Set<Clause> hardRules = new HashSet<Clause>();
+
+        private List<Double> levels;
+
+        private Fingerprint fingerprint;
+
+        private boolean unconditionallySolved = false;
+
+        private ComponentSolution unconditionalSolution;
+
+        private void addRule(Clause rule, double weight){
+            Set<Clause> level = this.rules.get(weight);
+            if (level == null){
+                this.rules.put(weight, level = new HashSet<Clause>());
+            }
+            level.add(rule);
+            this.invalidate();
+        }
+
+        private boolean removeRule(Clause rule, double weight){
+            Set<Clause> level = this.rules.get(weight);
+            if (level == null || !level.remove(rule)){
+                return false;
+            }
+            if (level.isEmpty()){
+                this.rules.remove(weight);
+            }
+            this.invalidate();
+            return true;
+        }
+
+        private void absorb(Component other){
+            this.variables.addAll(other.variables);
+            for (Map.Entry<Double,Set<Clause>> entry : other.rules.entrySet()){
+                for (Clause rule : entry.getValue()){
+                    this.addRule(rule, entry.getKey());
+                }
+            }
+            this.hardRules.addAll(other.hardRules);
+            this.invalidate();
+        }
+
+        private synchronized void invalidate(){
+            this.levels = null;
+            this.fingerprint = null;
+            this.unconditionallySolved = false;
+            this.unconditionalSolution = null;
+        }
+
+        public Set<Literal> variables(){
+            return this.variables;
+        }
+
+        public Set<Clause> hardRules(){
+            return this.hardRules;
+        }
+
+        /**
+         *
+         * @return the distinct necessity levels of the rules in this component sorted in ascending order
+         */
+        public synchronized List<Double> levels(){
+            if (this.levels == null){
+                this.levels = new ArrayList<Double>(this.rules.keySet());
+            }
+            return this.levels;
+        }
+
+        public Set<Clause> level(double alpha){
+            Set<Clause> level = this.rules.get(alpha);
+            return level == null ? Collections.<Clause>emptySet() : level;
+        }
+
+        /**
+         *
+         * @param levelIndex index into levels(), levels().size() stands for the cut containing just the hard rules
+         * @return hard rules together with the rules from the levels with index at least levelIndex
+         */
+        public List<Clause> cut(int levelIndex){
+            List<Double> levels = this.levels();
+            return levelIndex < levels.size() ? this.cut(levels.get(levelIndex)) : new ArrayList<Clause>(this.hardRules);
+        }
+
+        public List<Clause> cut(double alpha){
+            List<Clause> retVal = new ArrayList<Clause>(this.hardRules);
+            for (Set<Clause> level : this.rules.tailMap(alpha, true).values()){
+                retVal.addAll(level);
+            }
+            return retVal;
+        }
+
+        public void collectRules(PossibilisticLogicTheory plt){
+            for (Map.Entry<Double,Set<Clause>> entry : this.rules.entrySet()){
+                plt.addAll(entry.getValue(), entry.getKey());
+            }
+            plt.addAllHardRules(this.hardRules);
+        }
+
+        /**
+         *
+         * @return key identifying the content of the component, it does not depend on the concrete values of the
+         * weights, only on their order
+         */
+        public synchronized Fingerprint fingerprint(){
+            if (this.fingerprint == null){
+                List<Set<Clause>> levelList = new ArrayList<Set<Clause>>();
+                for (Set<Clause> level : this.rules.values()){
+                    levelList.add(new HashSet<Clause>(level));
+                }
+                this.fingerprint = new Fingerprint(levelList, new HashSet<Clause>(this.hardRules));
+            }
+            return this.fingerprint;
+        }
+
+        synchronized boolean isUnconditionallySolved(){
+            return this.unconditionallySolved;
+        }
+
+        synchronized ComponentSolution unconditionalSolution(){
+            return this.unconditionalSolution;
+        }
+
+        synchronized void setUnconditionalSolution(ComponentSolution solution){
+            this.unconditionalSolution = solution;
+            this.unconditionallySolved = true;
+        }
+    }
+
+    static class Fingerprint {
+
+        private final List<Set<Clause>> levels;
+
+        private final Set<Clause> hardRules;
+
+        private final int hashCode;
+
+        private Fingerprint(List<Set<Clause>> levels, Set<Clause> hardRules){
+            this.levels = levels;
+            this.hardRules = hardRules;
+            this.hashCode = 31*levels.hashCode()+hardRules.hashCode();
+        }
+
+        @Override
+        public int hashCode(){
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if (o instanceof Fingerprint){
+                Fingerprint f = (Fingerprint)o;
+                return f.hashCode == this.hashCode && f.levels.equals(this.levels) && f.hardRules.equals(this.hardRules);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A model of the lowest consistent cut of a component (together with some evidence). The cut is identified
+     * by the index of its lowest level in Component.levels(), so the solution remains valid when levels are
+     * added to or removed from other components.
+     */
+    static class ComponentSolution {
+
+        final Set<Literal> model;
+
+        final int consistentFrom;
+
+        ComponentSolution(Set<Literal> model, int consistentFrom){
+            this.model = model;
+            this.consistentFrom = consistentFrom;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Literal;
+import supertweety.logic.StratifiedSatSolver;
+import supertweety.logic.utils.LiteralDictionary;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming reader of possibilistic logic theories written by TheoryWriter (or printed by
+ * PossibilisticLogicTheory.toString()). The input is processed line by line, so apart from the theory itself
+ * only the current line is kept in memory.
+ *
+ * Optionally, the reader builds the int-encoding of the (ground) theory and a StratifiedSatSolver for it while
+ * reading, the levels of the solver are numbered from the highest necessity, i.e. the i-th level in the input
+ * is the level i-1 in the solver. The additional propositional variables of the theory are added to the theory
+ * and to the dictionary.
+ */
+public class TheoryReader {
+
+    private final BufferedReader reader;
+
+    private LiteralDictionary dictionary;
+
+    private StratifiedSatSolver solver;
+
+    public TheoryReader(Reader reader){
+        this(reader, false);
+    }
+
+    /**
+     *
+     * @param reader
+     * @param encode if true, the dictionary and the solver are built while reading
+     */
+    public TheoryReader(Reader reader, boolean encode){
+        this.reader = reader instanceof BufferedReader ? (BufferedReader)reader : new BufferedReader(reader);
+        if (encode){
+            this.dictionary = new LiteralDictionary();
+            this.solver = new StratifiedSatSolver();
+        }
+    }
+
+    public static PossibilisticLogicTheory read(Reader reader) throws IOException {
+        return new TheoryReader(reader).read();
+    }
+
+    public PossibilisticLogicTheory read() throws IOException {
+        PossibilisticLogicTheory plt = new PossibilisticLogicTheory();
+        boolean hardRules = false;
+        boolean variables = false;
+        double level = Double.NaN;
+        int levelIndex = -1;
+        int lineNumber = 0;
+        String line;
+        while ((line = this.reader.readLine()) != null){
+            lineNumber++;
+            line = line.trim();
+            if (line.length() == 0 || line.equals(TheoryWriter.SEPARATOR)){
+                continue;
+            }
+            if (line.equals(TheoryWriter.VARIABLES_HEADER)){
+                variables = true;
+                hardRules = false;
+            } else if (line.equals(TheoryWriter.HARD_RULES_HEADER)){
+                hardRules = true;
+                variables = false;
+            } else if (line.startsWith(TheoryWriter.LEVEL_HEADER)){
+                double newLevel;
+                try {
+                    newLevel = Double.parseDouble(line.substring(TheoryWriter.LEVEL_HEADER.length()).trim());
+                } catch (NumberFormatException nfe){
+                    throw new IOException("Invalid level header on line "+lineNumber+": "+line);
+                }
+                //the solver numbers the levels by their order in the file, so they must be strictly descending
+                if (levelIndex >= 0 && !(newLevel < level)){
+                    throw new IOException("Level on line "+lineNumber+" is not strictly below the previous level "+level+": "+line);
+                }
+                level = newLevel;
+                hardRules = false;
+                variables = false;
+                levelIndex++;
+            } else {
+                Clause clause = Clause.parse(line);
+                if (variables){
+                    for (Literal variable : clause.literals()){
+                        plt.addAdditionalPropositionalVariable(variable);
+                        if (this.dictionary != null){
+                            this.dictionary.add(variable);
+                        }
+                    }
+                } else if (hardRules){
+                    plt.addHardRule(clause);
+                    if (this.solver != null){
+                        this.solver.addHardClause(this.dictionary.add(clause));
+                    }
+                } else if (levelIndex >= 0){
+                    plt.addRule(clause, level);
+                    if (this.solver != null){
+                        this.solver.addClause(this.dictionary.add(clause), levelIndex);
+                    }
+                } else {
+                    throw new IOException("Clause outside of any level on line "+lineNumber+": "+line);
+                }
+            }
+        }
+        return plt;
+    }
+
+    /**
+     *
+     * @return the dictionary of the variables of the theory read so far, or null if the reader does not encode the theory
+     */
+    public LiteralDictionary dictionary(){
+        return this.dictionary;
+    }
+
+    /**
+     *
+     * @return solver for the theory read so far, or null if the reader does not encode the theory
+     */
+    public StratifiedSatSolver solver(){
+        return this.solver;
+    }
+}
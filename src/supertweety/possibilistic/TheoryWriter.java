@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Literal;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Collection;
+
+/**
+ * Streaming writer of possibilistic logic theories in the text format of PossibilisticLogicTheory.toString():
+ * an optional section of hard rules followed by the levels sorted from the highest necessity, every section
+ * starts with a separator line and a header line and contains one clause per line. The additional propositional
+ * variables of the theory (which do not appear in its rules) are written in an optional first section
+ * with one variable per line, PossibilisticLogicTheory.toString() does not print them. Files written by this class
+ * are read by TheoryReader.
+ */
+public class TheoryWriter {
+
+    final static String SEPARATOR = "---------------------";
+
+    final static String HARD_RULES_HEADER = "Hard rules:";
+
+    final static String VARIABLES_HEADER = "Additional variables:";
+
+    final static String LEVEL_HEADER = "Level ";
+
+    private final PrintWriter pw;
+
+    public TheoryWriter(Writer writer){
+        this.pw = writer instanceof PrintWriter ? (PrintWriter)writer : new PrintWriter(writer);
+    }
+
+    public static void write(PossibilisticLogicTheory plt, Writer writer) throws IOException {
+        TheoryWriter tw = new TheoryWriter(writer);
+        tw.writeAdditionalVariables(plt.additionalPropositionalVariables());
+        tw.writeHardRules(plt.hardRules());
+        for (double level : plt.weights().descendingSet()){
+            tw.writeLevel(level, plt.getAlphaLevel(level));
+        }
+        tw.flush();
+    }
+
+    /**
+     * Writes the propositional variables which do not appear in the rules but belong to the theory,
+     * it should be called before the hard rules and the levels are written.
+     * @param variables
+     */
+    public void writeAdditionalVariables(Collection<Literal> variables){
+        if (!variables.isEmpty()){
+            this.pw.println(SEPARATOR);
+            this.pw.println(VARIABLES_HEADER);
+            for (Literal variable : variables){
+                this.write(new Clause(variable));
+            }
+        }
+    }
+
+    public void writeHardRules(Collection<Clause> hardRules){
+        if (!hardRules.isEmpty()){
+            this.startHardRules();
+            for (Clause hardRule : hardRules){
+                this.write(hardRule);
+            }
+        }
+    }
+
+    public void writeLevel(double level, Collection<Clause> rules){
+        this.startLevel(level);
+        for (Clause rule : rules){
+            this.write(rule);
+        }
+    }
+
+    public void startHardRules(){
+        this.pw.println(SEPARATOR);
+        this.pw.println(HARD_RULES_HEADER);
+    }
+
+    /**
+     * Starts a new level, the levels should be written from the highest necessity.
+     * @param level
+     */
+    public void startLevel(double level){
+        this.pw.println(SEPARATOR);
+        this.pw.println(LEVEL_HEADER+level);
+    }
+
+    /**
+     * Writes a clause to the current section.
+     * @param clause
+     */
+    public void write(Clause clause){
+        this.pw.println(clause);
+    }
+
+    /**
+     * Flushes the underlying writer, errors of the previous writes are reported here.
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        if (this.pw.checkError()){
+            throw new IOException("Error while writing the theory.");
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic.learning;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Literal;
+import supertweety.defaults.DefaultRule;
+import supertweety.possibilistic.PossibilisticLogicTheory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scores of candidate rules kept across the iterations of the learner. A candidate is stored with the change
+ * of the score which it brings to the theory and with the rules of the theory in the connected components of its
+ * variables and of the variables of the examples it may affect (grouped by levels). The change of the score can only
+ * differ for a new theory if these rules or their order differ, so the entry is used as long as they are the same.
+ *
+ * Only candidates which do not make any levels drowned should be stored and the cache should be used only with theories
+ * without drowned levels.
+ */
+public class CandidateCache {
+
+    private final Map<Set<Literal>,Entry> entries = new ConcurrentHashMap<Set<Literal>,Entry>();
+
+    /**
+     *
+     * @param candidate
+     * @param theory
+     * @param defaultsCoverage coverage of the defaults by theory
+     * @param nondefaultsCoverage coverage of the non-defaults by theory
+     * @return the score of the theory with the candidate added to it greedily or null if it is not in the cache
+     */
+    public Double score(Clause candidate, PossibilisticLogicTheory theory, IncrementalCoverage defaultsCoverage, IncrementalCoverage nondefaultsCoverage){
+        Set<Literal> key = key(candidate);
+        Entry entry = this.entries.get(key);
+        if (entry == null){
+            return null;
+        }
+        if (!entry.relevantLevels.equals(relevantLevels(theory, entry.variables))){
+            this.entries.remove(key);
+            return null;
+        }
+        return score(defaultsCoverage, nondefaultsCoverage)+entry.scoreChange;
+    }
+
+    /**
+     *
+     * @param candidate
+     * @param score the score of the theory with the candidate added to it greedily
+     * @param theory
+     * @param defaultsCoverage coverage of the defaults by theory
+     * @param nondefaultsCoverage coverage of the non-defaults by theory
+     */
+    public void put(Clause candidate, double score, PossibilisticLogicTheory theory, IncrementalCoverage defaultsCoverage, IncrementalCoverage nondefaultsCoverage){
+        List<Literal> seed = new ArrayList<Literal>(candidate.literals());
+        for (IncrementalCoverage coverage : new IncrementalCoverage[]{defaultsCoverage, nondefaultsCoverage}){
+            BitSet affected = coverage.possiblyAffectedExamples(candidate, false);
+            for (int i = affected.nextSetBit(0); i >= 0; i = affected.nextSetBit(i+1)){
+                DefaultRule example = coverage.examples().get(i);
+                seed.addAll(example.antecedent().literals());
+                seed.addAll(example.consequent().literals());
+            }
+        }
+        Set<Literal> variables = theory.connectedVariables(seed);
+        this.entries.put(key(candidate), new Entry(score-score(defaultsCoverage, nondefaultsCoverage), variables, relevantLevels(theory, variables)));
+    }
+
+    public int size(){
+        return this.entries.size();
+    }
+
+    public void clear(){
+        this.entries.clear();
+    }
+
+    private static Set<Literal> key(Clause candidate){
+        return new HashSet<Literal>(candidate.literals());
+    }
+
+    private static int score(IncrementalCoverage defaultsCoverage, IncrementalCoverage nondefaultsCoverage){
+        return defaultsCoverage.countCovered()-nondefaultsCoverage.countCovered();
+    }
+
+    //the non-empty levels restricted to the rules containing some of the variables, from the lowest level
+    private static List<Set<Clause>> relevantLevels(PossibilisticLogicTheory theory, Set<Literal> variables){
+        List<Set<Clause>> retVal = new ArrayList<Set<Clause>>();
+        for (Set<Clause> level : theory.toPersistentStratification()){
+            Set<Clause> relevant = new HashSet<Clause>();
+            for (Clause c : level){
+                for (Literal l : c.literals()){
+                    if (variables.contains(l.isNegated() ? l.negation() : l)){
+                        relevant.add(c);
+                        break;
+                    }
+                }
+            }
+            if (!relevant.isEmpty()){
+                retVal.add(relevant);
+            }
+        }
+        return retVal;
+    }
+
+    private static class Entry {
+
+        private final double scoreChange;
+
+        private final Set<Literal> variables;
+
+        private final List<Set<Clause>> relevantLevels;
+
+        private Entry(double scoreChange, Set<Literal> variables, List<Set<Clause>> relevantLevels){
+            this.scoreChange = scoreChange;
+            this.variables = variables;
+            this.relevantLevels = relevantLevels;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic.learning;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Literal;
+import supertweety.defaults.DefaultRule;
+import supertweety.logic.utils.LiteralDictionary;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Example store keeping the examples as sorted arrays of literals encoded by a LiteralDictionary in one flat int array.
+ * Equal examples share one index. DefaultRule objects are only created when an example is requested by get(int).
+ *
+ * Examples are added by a single thread, the store may be read concurrently afterwards. The examples are decoded
+ * by an immutable LiteralDictionary.Decoder, so concurrent calls of get(int) do not lock the dictionary.
+ */
+public class CompactExampleStore implements ExampleStore {
+
+    private final LiteralDictionary dictionary;
+
+    //example i occupies arena[offsets[i]] ... arena[offsets[i+1]-1]: the length of its antecedent, the antecedent
+    //and the consequent
+    private int[] arena = new int[1024];
+
+    private int[] offsets = new int[17];
+
+    private int[] multiplicities = new int[16];
+
+    private int size = 0;
+
+    private int totalCount = 0;
+
+    //open addressing table of indices+1 of the examples (0 = empty slot), its size is a power of two
+    private int[] table = new int[32];
+
+    //published by trim() and read(ByteBuffer), replaced when an example with atoms added later is decoded
+    private volatile LiteralDictionary.Decoder decoder;
+
+    public CompactExampleStore(){
+        this(new LiteralDictionary());
+    }
+
+    /**
+     *
+     * @param dictionary dictionary of literals, may be shared by several stores
+     */
+    public CompactExampleStore(LiteralDictionary dictionary){
+        this.dictionary = dictionary;
+    }
+
+    public CompactExampleStore(Collection<DefaultRule> examples){
+        this();
+        for (DefaultRule example : examples){
+            this.add(example);
+        }
+    }
+
+    private CompactExampleStore(LiteralDictionary dictionary, int size, int totalCount, int[] offsets, int[] arena, int[] multiplicities, int[] table){
+        this.dictionary = dictionary;
+        this.size = size;
+        this.totalCount = totalCount;
+        this.offsets = offsets;
+        this.arena = arena;
+        this.multiplicities = multiplicities;
+        this.table = table;
+        this.decoder = dictionary.decoder();
+    }
+
+    public LiteralDictionary dictionary(){
+        return this.dictionary;
+    }
+
+    /**
+     *
+     * @param example ground example
+     * @return index of the example
+     */
+    public int add(DefaultRule example){
+        return this.add(this.dictionary.add(example.antecedent()), this.dictionary.add(example.consequent()), 1);
+    }
+
+    /**
+     *
+     * @param antecedent literals of the antecedent encoded by the dictionary of the store
+     * @param consequent literals of the consequent encoded by the dictionary of the store
+     * @param multiplicity number of occurrences of the example
+     * @return index of the example
+     */
+    public int add(int[] antecedent, int[] consequent, int multiplicity){
+        antecedent = sorted(antecedent);
+        consequent = sorted(consequent);
+        int hash = hash(antecedent, consequent);
+        int mask = this.table.length-1;
+        int slot = hash & mask;
+        while (this.table[slot] != 0){
+            int index = this.table[slot]-1;
+            if (this.equals(index, antecedent, consequent)){
+                this.multiplicities[index] += multiplicity;
+                this.totalCount += multiplicity;
+                return index;
+            }
+            slot = (slot+1) & mask;
+        }
+        int index = this.size;
+        this.ensureCapacity(1+antecedent.length+consequent.length);
+        int offset = this.offsets[index];
+        this.arena[offset] = antecedent.length;
+        System.arraycopy(antecedent, 0, this.arena, offset+1, antecedent.length);
+        System.arraycopy(consequent, 0, this.arena, offset+1+antecedent.length, consequent.length);
+        this.offsets[index+1] = offset+1+antecedent.length+consequent.length;
+        this.multiplicities[index] = multiplicity;
+        this.totalCount += multiplicity;
+        this.size++;
+        this.table[slot] = index+1;
+        if (2*this.size > this.table.length){
+            this.rehash();
+        }
+        return index;
+    }
+
+    public int size(){
+        return this.size;
+    }
+
+    public int totalCount(){
+        return this.totalCount;
+    }
+
+    public int multiplicity(int index){
+        return this.multiplicities[index];
+    }
+
+    /**
+     *
+     * @param index
+     * @return encoded literals of the antecedent of the example
+     */
+    public int[] antecedent(int index){
+        int offset = this.offsets[index];
+        return Arrays.copyOfRange(this.arena, offset+1, offset+1+this.arena[offset]);
+    }
+
+    /**
+     *
+     * @param index
+     * @return encoded literals of the consequent of the example
+     */
+    public int[] consequent(int index){
+        int offset = this.offsets[index];
+        return Arrays.copyOfRange(this.arena, offset+1+this.arena[offset], this.offsets[index+1]);
+    }
+
+    public DefaultRule get(int index){
+        int offset = this.offsets[index];
+        int consequentOffset = offset+1+this.arena[offset];
+        return new DefaultRule(this.decode(offset+1, consequentOffset), this.decode(consequentOffset, this.offsets[index+1]));
+    }
+
+    public int indexOf(DefaultRule example){
+        int[] antecedent = this.encode(example.antecedent());
+        int[] consequent = this.encode(example.consequent());
+        if (antecedent == null || consequent == null){
+            return -1;
+        }
+        antecedent = sorted(antecedent);
+        consequent = sorted(consequent);
+        int mask = this.table.length-1;
+        for (int slot = hash(antecedent, consequent) & mask; this.table[slot] != 0; slot = (slot+1) & mask){
+            if (this.equals(this.table[slot]-1, antecedent, consequent)){
+                return this.table[slot]-1;
+            }
+        }
+        return -1;
+    }
+
+    public BitSet touching(Set<Literal> variables){
+        BitSet encodedVariables = new BitSet(this.dictionary.size()+1);
+        for (Literal l : variables){
+            int variable = this.dictionary.variable(l);
+            if (variable != 0){
+                encodedVariables.set(variable);
+            }
+        }
+        BitSet retVal = new BitSet(this.size);
+        for (int i = 0; i < this.size; i++){
+            for (int j = this.offsets[i]+1; j < this.offsets[i+1]; j++){
+                if (encodedVariables.get(Math.abs(this.arena[j]))){
+                    retVal.set(i);
+                    break;
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Trims the internal arrays to the size of the store.
+     */
+    public void trim(){
+        this.arena = Arrays.copyOf(this.arena, this.offsets[this.size]);
+        this.offsets = Arrays.copyOf(this.offsets, this.size+1);
+        this.multiplicities = Arrays.copyOf(this.multiplicities, this.size);
+        this.decoder = this.dictionary.decoder();
+    }
+
+    /**
+     * Writes the store in the format read by read(ByteBuffer): number of examples, total count, length of the arena,
+     * size of the hash table, offsets (size+1 ints), multiplicities, hash table, arena and the dictionary.
+     * @param out
+     * @throws IOException
+     */
+    public void write(DataOutput out) throws IOException {
+        int arenaLength = this.offsets[this.size];
+        out.writeInt(this.size);
+        out.writeInt(this.totalCount);
+        out.writeInt(arenaLength);
+        out.writeInt(this.table.length);
+        writeInts(this.offsets, this.size+1, out);
+        writeInts(this.multiplicities, this.size, out);
+        writeInts(this.table, this.table.length, out);
+        writeInts(this.arena, arenaLength, out);
+        this.dictionary.write(out);
+    }
+
+    /**
+     * Reads a store written by write(DataOutput) starting at the current position of the buffer.
+     * @param buffer
+     * @return
+     */
+    public static CompactExampleStore read(ByteBuffer buffer){
+        int size = buffer.getInt();
+        int totalCount = buffer.getInt();
+        int arenaLength = buffer.getInt();
+        int tableLength = buffer.getInt();
+        int[] offsets = readInts(buffer, size+1);
+        int[] multiplicities = readInts(buffer, size);
+        int[] table = readInts(buffer, tableLength);
+        int[] arena = readInts(buffer, arenaLength);
+        return new CompactExampleStore(LiteralDictionary.read(buffer), size, totalCount, offsets, arena, multiplicities, table);
+    }
+
+    private static void writeInts(int[] a, int length, DataOutput out) throws IOException {
+        for (int i = 0; i < length; i++){
+            out.writeInt(a[i]);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int length){
+        int[] retVal = new int[length];
+        buffer.asIntBuffer().get(retVal);
+        buffer.position(buffer.position()+4*length);
+        return retVal;
+    }
+
+    //decodes arena[from] ... arena[to-1]
+    private Clause decode(int from, int to){
+        LiteralDictionary.Decoder decoder = this.decoder;
+        List<Literal> retVal = new ArrayList<Literal>(to-from);
+        for (int i = from; i < to; i++){
+            int l = this.arena[i];
+            if (decoder == null || Math.abs(l) > decoder.size()){
+                //only when examples are still being added
+                this.decoder = decoder = this.dictionary.decoder();
+            }
+            retVal.add(decoder.decode(l));
+        }
+        return new Clause(retVal);
+    }
+
+    //null if some literal is not in the dictionary
+    private int[] encode(Clause clause){
+        int[] retVal = new int[clause.countLiterals()];
+        int i = 0;
+        for (Literal l : clause.literals()){
+            if ((retVal[i++] = this.dictionary.encode(l)) == 0){
+                return null;
+            }
+        }
+        return retVal;
+    }
+
+    private boolean equals(int index, int[] antecedent, int[] consequent){
+        int offset = this.offsets[index];
+        if (this.arena[offset] != antecedent.length || this.offsets[index+1]-offset-1 != antecedent.length+consequent.length){
+            return false;
+        }
+        for (int i = 0; i < antecedent.length; i++){
+            if (this.arena[offset+1+i] != antecedent[i]){
+                return false;
+            }
+        }
+        offset += 1+antecedent.length;
+        for (int i = 0; i < consequent.length; i++){
+            if (this.arena[offset+i] != consequent[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureCapacity(int length){
+        int needed = this.offsets[this.size]+length;
+        if (needed > this.arena.length){
+            this.arena = Arrays.copyOf(this.arena, Math.max(needed, 2*this.arena.length));
+        }
+        if (this.size+2 > this.offsets.length){
+            this.offsets = Arrays.copyOf(this.offsets, 2*this.offsets.length);
+        }
+        if (this.size+1 > this.multiplicities.length){
+            this.multiplicities = Arrays.copyOf(this.multiplicities, Math.max(16, 2*this.multiplicities.length));
+        }
+    }
+
+    private void rehash(){
+        this.table = new int[2*this.table.length];
+        int mask = this.table.length-1;
+        for (int i = 0; i < this.size; i++){
+            int offset = this.offsets[i];
+            int antecedentEnd = offset+1+this.arena[offset];
+            int slot = hash(this.arena, offset+1, antecedentEnd, this.offsets[i+1]) & mask;
+            while (this.table[slot] != 0){
+                slot = (slot+1) & mask;
+            }
+            this.table[slot] = i+1;
+        }
+    }
+
+    static int[] sorted(int[] literals){
+        int[] retVal = literals.clone();
+        Arrays.sort(retVal);
+        return retVal;
+    }
+
+    //the hash of an example used by the hash table, it is a part of the binary format
+    static int hash(int[] antecedent, int[] consequent){
+        return mix(31*Arrays.hashCode(antecedent)+Arrays.hashCode(consequent));
+    }
+
+    private static int hash(int[] arena, int from, int antecedentEnd, int to){
+        return mix(31*hashCode(arena, from, antecedentEnd)+hashCode(arena, antecedentEnd, to));
+    }
+
+    //the same as Arrays.hashCode for the given range
+    private static int hashCode(int[] a, int from, int to){
+        int retVal = 1;
+        for (int i = from; i < to; i++){
+            retVal = 31*retVal+a[i];
+        }
+        return retVal;
+    }
+
+    private static int mix(int h){
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+}
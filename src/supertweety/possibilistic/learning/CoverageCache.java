@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic.learning;
+
+import ida.ilp.logic.Literal;
+import ida.utils.Sugar;
+import supertweety.defaults.DefaultRule;
+import supertweety.possibilistic.PossibilisticLogicTheory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coverage of the examples of an ExampleSet by the relevant subtheories of the evaluated theories. Whether an example
+ * is covered depends only on the relevant subtheory for it, which is the same for most of the stratifications
+ * evaluated for an example in one iteration of the learner.
+ */
+public class CoverageCache {
+
+    private final Map<Key,Boolean> coverage = new ConcurrentHashMap<Key,Boolean>();
+
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+    /**
+     *
+     * @param theory theory without drowned levels
+     * @param example
+     * @param index index of the example
+     * @return key of the example and its relevant subtheory in the theory
+     */
+    public static Key key(PossibilisticLogicTheory theory, DefaultRule example, int index){
+        return new Key(theory.relevantSubtheoryKey(Sugar.<Literal>iterable(example.antecedent().literals(), example.consequent().literals())), index);
+    }
+
+    /**
+     *
+     * @param key
+     * @return the stored coverage of the example by its relevant subtheory or null if it is not stored
+     */
+    public Boolean get(Key key){
+        Boolean retVal = this.coverage.get(key);
+        if (retVal == null){
+            this.misses.incrementAndGet();
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return retVal;
+    }
+
+    public void put(Key key, boolean covered){
+        //the cache is simply emptied when it gets too big, the entries of older theories are rarely used anyway
+        if (this.coverage.size() >= Settings.coverageCacheSize){
+            this.coverage.clear();
+        }
+        this.coverage.put(key, covered);
+    }
+
+    public long hits(){
+        return this.hits.get();
+    }
+
+    public long misses(){
+        return this.misses.get();
+    }
+
+    public double hitRate(){
+        long hits = this.hits.get();
+        long all = hits+this.misses.get();
+        return all == 0 ? 0 : hits/(double)all;
+    }
+
+    public int size(){
+        return this.coverage.size();
+    }
+
+    public void clear(){
+        this.coverage.clear();
+    }
+
+    public void resetStatistics(){
+        this.hits.set(0);
+        this.misses.set(0);
+    }
+
+    @Override
+    public String toString(){
+        return "CoverageCache[size: "+this.size()+", hits: "+this.hits()+", misses: "+this.misses()+", hit rate: "+this.hitRate()+"]";
+    }
+
+    /**
+     * Identifies the relevant subtheory (by PossibilisticLogicTheory.relevantSubtheoryKey) together with the index
+     * of the example.
+     */
+    public static class Key {
+
+        private final Object relevantSubtheory;
+
+        private final int example;
+
+        private final int hashCode;
+
+        private Key(Object relevantSubtheory, int example){
+            this.relevantSubtheory = relevantSubtheory;
+            this.example = example;
+            this.hashCode = 31*relevantSubtheory.hashCode()+example;
+        }
+
+        @Override
+        public int hashCode(){
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if (o instanceof Key){
+                Key k = (Key)o;
+                return k.hashCode == this.hashCode && k.example == this.example && k.relevantSubtheory.equals(this.relevantSubtheory);
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic.learning;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Literal;
+import ida.utils.Sugar;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary caches of parsed datasets (and files with hard rules) stored next to the source files. A cache contains
+ * the examples as a CompactExampleStore and identifies its source file by its length, time of the last modification
+ * and CRC32 checksum. The cache is used if the length and either the time of the last modification or the checksum
+ * match, so the source file is read only if it has been touched.
+ *
+ * File layout (big-endian): magic, version, kind (examples or hard rules), length of the source file (long), time
+ * of the last modification of the source file (long), CRC32 of the source file (long), store (see CompactExampleStore.write).
+ * Hard rules are stored as examples with empty antecedents.
+ */
+public class DatasetCache {
+
+    private final static int MAGIC = 0x44534331;
+
+    private final static int VERSION = 1;
+
+    private final static int EXAMPLES = 0, HARD_RULES = 1;
+
+    private final static int HEADER_SIZE = 3*4+3*8;
+
+    public final static String SUFFIX = ".cache";
+
+    public static File cacheFile(File source){
+        return new File(source.getPath()+SUFFIX);
+    }
+
+    /**
+     * Loads the dataset from its cache if there is a valid one, otherwise parses it and writes the cache.
+     * @param source
+     * @return
+     * @throws IOException
+     */
+    public static CompactExampleStore loadExamples(File source) throws IOException {
+        CompactExampleStore retVal = read(source, EXAMPLES);
+        if (retVal == null){
+            retVal = DatasetReader.readDefaultRuleDataset(source, new CompactExampleStore());
+            tryWrite(retVal, EXAMPLES, source);
+        }
+        return retVal;
+    }
+
+    /**
+     * Loads the hard rules (one clause per line) from the cache if there is a valid one, otherwise parses them
+     * and writes the cache. Repeated rules are returned only once.
+     * @param source
+     * @return
+     * @throws IOException
+     */
+    public static List<Clause> loadHardRules(File source) throws IOException {
+        CompactExampleStore store = read(source, HARD_RULES);
+        if (store == null){
+            store = new CompactExampleStore();
+            Reader reader = new FileReader(source);
+            try {
+                for (String line : Sugar.readLines(reader)){
+                    line = line.trim();
+                    if (line.length() > 0){
+                        store.add(new int[0], store.dictionary().add(Clause.parse(line)), 1);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            store.trim();
+            tryWrite(store, HARD_RULES, source);
+        }
+        List<Clause> retVal = new ArrayList<Clause>(store.size());
+        for (int i = 0; i < store.size(); i++){
+            List<Literal> literals = new ArrayList<Literal>();
+            for (int l : store.consequent(i)){
+                literals.add(store.dictionary().decode(l));
+            }
+            retVal.add(new Clause(literals));
+        }
+        return retVal;
+    }
+
+    /**
+     * Parses the dataset and writes its cache, even if a valid cache exists.
+     * @param source
+     * @throws IOException
+     */
+    public static void buildExamplesCache(File source) throws IOException {
+        write(DatasetReader.readDefaultRuleDataset(source, new CompactExampleStore()), EXAMPLES, source);
+    }
+
+    /**
+     * Parses the hard rules and writes their cache, even if a valid cache exists.
+     * @param source
+     * @throws IOException
+     */
+    public static void buildHardRulesCache(File source) throws IOException {
+        if (cacheFile(source).exists() && !cacheFile(source).delete()){
+            throw new IOException("Could not delete the cache "+cacheFile(source));
+        }
+        loadHardRules(source);
+    }
+
+    /**
+     *
+     * @param source
+     * @param kind
+     * @return the store from the cache of the source file or null if there is no valid cache
+     * @throws IOException
+     */
+    private static CompactExampleStore read(File source, int kind) throws IOException {
+        File cache = cacheFile(source);
+        if (!cache.isFile()){
+            return null;
+        }
+        RandomAccessFile raf = new RandomAccessFile(cache, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (!isValid(channel, kind, source)){
+                return null;
+            }
+            return CompactExampleStore.read(channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, channel.size()-HEADER_SIZE));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Opens the cache of the dataset as an off-heap store, the cache is built first if there is no valid one
+     * (which requires the parsed dataset to fit in memory once).
+     * @param source
+     * @return
+     * @throws IOException
+     */
+    public static MappedExampleStore openExamples(File source) throws IOException {
+        File cache = cacheFile(source);
+        for (int attempt = 0; attempt < 2; attempt++){
+            if (cache.isFile()){
+                RandomAccessFile raf = new RandomAccessFile(cache, "r");
+                try {
+                    FileChannel channel = raf.getChannel();
+                    if (isValid(channel, EXAMPLES, source)){
+                        return MappedExampleStore.open(channel, HEADER_SIZE);
+                    }
+                } finally {
+                    raf.close();
+                }
+            }
+            buildExamplesCache(source);
+        }
+        throw new IOException("Could not open the cache "+cache);
+    }
+
+    private static boolean isValid(FileChannel channel, int kind, File source) throws IOException {
+        if (channel.size() < HEADER_SIZE){
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) != -1){}
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != kind){
+            return false;
+        }
+        long length = header.getLong();
+        long lastModified = header.getLong();
+        long checksum = header.getLong();
+        return length == source.length() && (lastModified == source.lastModified() || checksum == checksum(source));
+    }
+
+    //the data are usable even if the cache cannot be written (e.g. in a read-only directory)
+    private static void tryWrite(CompactExampleStore store, int kind, File source){
+        try {
+            write(store, kind, source);
+        } catch (IOException ioe){
+            System.err.println("Could not write the cache of "+source+": "+ioe.getMessage());
+        }
+    }
+
+    private static void write(CompactExampleStore store, int kind, File source) throws IOException {
+        File cache = cacheFile(source);
+        //the cache is written under a unique temporary name so that an interrupted run does not leave a broken cache
+        //and concurrent runs do not write into the same file
+        File tmp = File.createTempFile(cache.getName()+".", ".tmp", cache.getAbsoluteFile().getParentFile());
+        long lastModified = source.lastModified();
+        boolean written = false;
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(kind);
+                out.writeLong(source.length());
+                out.writeLong(lastModified);
+                out.writeLong(checksum(source));
+                store.write(out);
+            } finally {
+                out.close();
+            }
+            //the rename replaces an existing cache atomically where the platform allows it, otherwise the old cache
+            //is deleted first; if it still fails, another run has written the cache in the meantime, which is fine
+            written = tmp.renameTo(cache) || (cache.delete() && tmp.renameTo(cache));
+        } finally {
+            if (!written){
+                tmp.delete();
+            }
+        }
+    }
+
+    private static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+            while (channel.read(buffer) != -1){
+                crc.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+}
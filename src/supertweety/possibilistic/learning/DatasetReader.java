@@ -10,14 +10,20 @@
 
 package supertweety.possibilistic.learning;
 
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Literal;
 import ida.utils.Sugar;
+import ida.utils.tuples.Pair;
 import supertweety.defaults.DefaultRule;
+import supertweety.logic.utils.LiteralDictionary;
+import supertweety.possibilistic.Globals;
 
-import java.io.FileReader;
-import java.io.IOException;
-import java.io.Reader;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * Created by kuzelkao_cardiff on 03/11/15.
@@ -26,26 +32,236 @@ public class DatasetReader {
 
     public final static String ARROW = "->";
 
+    private final static int BLOCK_SIZE = 1 << 22;
+
+    //lines of a block are not split among more workers than needed for batches of this size
+    private final static int MIN_BATCH_SIZE = 1000;
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
     public static List<DefaultRule> readDefaultRuleDataset(Reader reader) throws IOException {
         List<DefaultRule> retVal = new ArrayList<DefaultRule>();
         for (String line : Sugar.readLines(reader)){
-            line = line.trim();
-            if (line.contains(ARROW)){
-                String[] spl = line.split("->");
-                if (spl.length == 2){
-                    retVal.add(new DefaultRule(spl[0], spl[1]));
-                } else if (spl.length == 1){
-                    if (line.startsWith(ARROW)){
-                        retVal.add(new DefaultRule("", spl[0]));
-                    } else {
-                        //... nothing ...
+            DefaultRule rule = parseLine(line);
+            if (rule != null){
+                retVal.add(rule);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Same as readDefaultRuleDataset(Reader, CompactExampleStore, List) with the malformed lines printed to System.err.
+     */
+    public static CompactExampleStore readDefaultRuleDataset(Reader reader, CompactExampleStore store) throws IOException {
+        List<Pair<Integer,String>> malformed = new ArrayList<Pair<Integer,String>>();
+        readDefaultRuleDataset(reader, store, malformed);
+        for (Pair<Integer,String> line : malformed){
+            System.err.println("Malformed line "+line.r+": "+line.s);
+        }
+        return store;
+    }
+
+    /**
+     * Reads the dataset line by line into a compact store, the DefaultRule objects of the lines are not kept.
+     * @param reader
+     * @param store store to which the examples are added, stores of related datasets may share a dictionary
+     * @param malformed the numbers (from 1) and contents of the lines which are neither empty nor valid examples are added to it
+     * @return the store
+     * @throws IOException
+     */
+    public static CompactExampleStore readDefaultRuleDataset(Reader reader, CompactExampleStore store, List<Pair<Integer,String>> malformed) throws IOException {
+        BufferedReader br = reader instanceof BufferedReader ? (BufferedReader)reader : new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = br.readLine()) != null){
+            lineNumber++;
+            try {
+                DefaultRule rule = parseExample(line);
+                if (rule != null){
+                    store.add(rule);
+                }
+            } catch (Exception e){
+                malformed.add(new Pair<Integer,String>(lineNumber, line.trim()));
+            }
+        }
+        store.trim();
+        return store;
+    }
+
+    /**
+     * Same as readDefaultRuleDataset(File, CompactExampleStore, List) with the malformed lines printed to System.err.
+     */
+    public static CompactExampleStore readDefaultRuleDataset(File file, CompactExampleStore store) throws IOException {
+        List<Pair<Integer,String>> malformed = new ArrayList<Pair<Integer,String>>();
+        readDefaultRuleDataset(file, store, malformed);
+        for (Pair<Integer,String> line : malformed){
+            System.err.println("Malformed line "+line.r+" in "+file+": "+line.s);
+        }
+        return store;
+    }
+
+    /**
+     * Reads the dataset in large blocks and parses the lines of every block in parallel. The examples are added
+     * to the store in the order of the lines, but the numbering of the literals in the dictionary of the store
+     * may depend on the scheduling of the parsing.
+     * @param file
+     * @param store store to which the examples are added, stores of related datasets may share a dictionary
+     * @param malformed the numbers (from 1) and contents of the lines which are neither empty nor valid examples are added to it
+     * @return the store
+     * @throws IOException
+     */
+    public static CompactExampleStore readDefaultRuleDataset(File file, CompactExampleStore store, List<Pair<Integer,String>> malformed) throws IOException {
+        //caches of the variables of literals, one per worker, so that the shared dictionary is not locked for every literal
+        List<Map<Literal,Integer>> interned = new ArrayList<Map<Literal,Integer>>();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+            int lineNumber = 1;
+            boolean eof = false;
+            while (!eof){
+                eof = channel.read(buffer) == -1;
+                buffer.flip();
+                //only complete lines are parsed, the rest of the block is kept for the next one
+                int end = buffer.limit();
+                if (!eof){
+                    while (end > 0 && buffer.get(end-1) != '\n'){
+                        end--;
+                    }
+                    if (end == 0){
+                        //a line longer than the buffer
+                        buffer.position(buffer.limit());
+                        buffer.limit(buffer.capacity());
+                        if (!buffer.hasRemaining()){
+                            ByteBuffer larger = ByteBuffer.allocate(2*buffer.capacity());
+                            buffer.flip();
+                            larger.put(buffer);
+                            buffer = larger;
+                        }
+                        continue;
                     }
+                }
+                String[] lines = new String(buffer.array(), 0, end, UTF8).split("\n", -1);
+                //the last element is the empty string after the last new line
+                int numLines = eof && end > 0 && buffer.get(end-1) != '\n' ? lines.length : lines.length-1;
+                parseLines(lines, numLines, lineNumber, store, interned, malformed);
+                lineNumber += numLines;
+                buffer.position(end);
+                buffer.compact();
+            }
+        } finally {
+            in.close();
+        }
+        store.trim();
+        return store;
+    }
+
+    private static void parseLines(final String[] lines, int numLines, final int firstLineNumber, final CompactExampleStore store,
+                                   List<Map<Literal,Integer>> interned, List<Pair<Integer,String>> malformed){
+        int numBatches = Math.max(1, Math.min(Globals.processors, numLines/MIN_BATCH_SIZE));
+        while (interned.size() < numBatches){
+            interned.add(new HashMap<Literal,Integer>());
+        }
+        List<Callable<Batch>> tasks = new ArrayList<Callable<Batch>>();
+        for (int b = 0; b < numBatches; b++){
+            final int from = (int)((long)numLines*b/numBatches);
+            final int to = (int)((long)numLines*(b+1)/numBatches);
+            final Map<Literal,Integer> batchInterned = interned.get(b);
+            tasks.add(new Callable<Batch>() {
+                @Override
+                public Batch call() throws Exception {
+                    Batch batch = new Batch();
+                    for (int i = from; i < to; i++){
+                        String line = lines[i];
+                        try {
+                            DefaultRule rule = parseExample(line);
+                            if (rule != null){
+                                batch.antecedents.add(encode(rule.antecedent(), store.dictionary(), batchInterned));
+                                batch.consequents.add(encode(rule.consequent(), store.dictionary(), batchInterned));
+                            }
+                        } catch (Exception e){
+                            batch.malformed.add(new Pair<Integer,String>(firstLineNumber+i, line.trim()));
+                        }
+                    }
+                    return batch;
+                }
+            });
+        }
+        for (Batch batch : numBatches == 1 ? Sugar.<Batch>list(call(tasks.get(0))) : Settings.invokeAll(tasks)){
+            for (int i = 0; i < batch.antecedents.size(); i++){
+                store.add(batch.antecedents.get(i), batch.consequents.get(i), 1);
+            }
+            malformed.addAll(batch.malformed);
+        }
+    }
+
+    private static <T> T call(Callable<T> task){
+        try {
+            return task.call();
+        } catch (Exception e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int[] encode(Clause clause, LiteralDictionary dictionary, Map<Literal,Integer> interned){
+        int[] retVal = new int[clause.countLiterals()];
+        int i = 0;
+        for (Literal l : clause.literals()){
+            Literal atom = l.isNegated() ? l.negation() : l;
+            Integer variable = interned.get(atom);
+            if (variable == null){
+                interned.put(atom, variable = dictionary.add(atom));
+            }
+            retVal[i++] = l.isNegated() ? -variable : variable;
+        }
+        return retVal;
+    }
+
+    /**
+     *
+     * @param line
+     * @return the example on the line or null if the line is empty
+     * @throws IllegalArgumentException if the line is not a valid example
+     */
+    private static DefaultRule parseExample(String line){
+        line = line.trim();
+        if (line.length() == 0){
+            return null;
+        }
+        String[] spl = line.split(ARROW, -1);
+        if (spl.length != 2 || spl[1].trim().length() == 0){
+            throw new IllegalArgumentException(line);
+        }
+        return new DefaultRule(spl[0], spl[1]);
+    }
+
+    private static class Batch {
+
+        private final List<int[]> antecedents = new ArrayList<int[]>();
+
+        private final List<int[]> consequents = new ArrayList<int[]>();
+
+        private final List<Pair<Integer,String>> malformed = new ArrayList<Pair<Integer,String>>();
+    }
+
+    private static DefaultRule parseLine(String line){
+        line = line.trim();
+        if (line.contains(ARROW)){
+            String[] spl = line.split("->");
+            if (spl.length == 2){
+                return new DefaultRule(spl[0], spl[1]);
+            } else if (spl.length == 1){
+                if (line.startsWith(ARROW)){
+                    return new DefaultRule("", spl[0]);
                 } else {
                     //... nothing ...
                 }
+            } else {
+                //... nothing ...
             }
         }
-        return retVal;
+        return null;
     }
 
     public static void main(String[] args) throws Exception {
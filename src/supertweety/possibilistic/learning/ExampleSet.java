@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic.learning;
+
+import ida.ilp.logic.Literal;
+import supertweety.defaults.DefaultRule;
+
+import java.util.*;
+
+/**
+ * Examples indexed once so that sets of examples (e.g. the covered examples) can be represented by bit sets.
+ * Equal examples share one index, the number of their occurrences is kept as their multiplicity.
+ * The examples themselves are kept in an ExampleStore.
+ */
+public class ExampleSet {
+
+    private final ExampleStore store;
+
+    private final boolean unitMultiplicities;
+
+    private final CoverageCache coverageCache;
+
+    private final UnsatCoreCache unsatCoreCache;
+
+    public ExampleSet(Collection<DefaultRule> examples){
+        this(new ListExampleStore(examples));
+    }
+
+    public ExampleSet(ExampleStore store){
+        this(store, true);
+    }
+
+    private ExampleSet(ExampleStore store, boolean cached){
+        this.store = store;
+        this.unitMultiplicities = store.totalCount() == store.size();
+        this.coverageCache = cached ? new CoverageCache() : null;
+        this.unsatCoreCache = cached ? new UnsatCoreCache() : null;
+    }
+
+    /**
+     *
+     * @param examples
+     * @return example set without the coverage cache and the unsat core cache, for sets which are evaluated only once
+     * and would therefore never get a hit
+     */
+    static ExampleSet uncached(Collection<DefaultRule> examples){
+        return new ExampleSet(new ListExampleStore(examples), false);
+    }
+
+    public ExampleStore store(){
+        return this.store;
+    }
+
+    /**
+     *
+     * @return number of distinct examples
+     */
+    public int size(){
+        return this.store.size();
+    }
+
+    /**
+     *
+     * @return number of examples including the repeated ones
+     */
+    public int totalCount(){
+        return this.store.totalCount();
+    }
+
+    /**
+     *
+     * @return cache of the coverage of the examples used by LearningUtils or null if the set is not cached
+     */
+    public CoverageCache coverageCache(){
+        return this.coverageCache;
+    }
+
+    /**
+     *
+     * @return unsat cores of the entailment checks of the examples used by LearningUtils or null if the set is not cached
+     */
+    public UnsatCoreCache unsatCoreCache(){
+        return this.unsatCoreCache;
+    }
+
+    public DefaultRule get(int index){
+        return this.store.get(index);
+    }
+
+    /**
+     *
+     * @param example
+     * @return index of the example or -1 if it is not in the set
+     */
+    public int indexOf(DefaultRule example){
+        return this.store.indexOf(example);
+    }
+
+    public int multiplicity(int index){
+        return this.store.multiplicity(index);
+    }
+
+    /**
+     *
+     * @return bit set containing all the examples
+     */
+    public BitSet all(){
+        BitSet retVal = new BitSet(this.size());
+        retVal.set(0, this.size());
+        return retVal;
+    }
+
+    /**
+     *
+     * @param set
+     * @return number of examples in the set including the repeated ones
+     */
+    public int count(BitSet set){
+        if (this.unitMultiplicities){
+            return set.cardinality();
+        }
+        int retVal = 0;
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i+1)){
+            retVal += this.store.multiplicity(i);
+        }
+        return retVal;
+    }
+
+    /**
+     *
+     * @param set
+     * @return the distinct examples in the set in the order of their indices
+     */
+    public List<DefaultRule> distinct(BitSet set){
+        List<DefaultRule> retVal = new ArrayList<DefaultRule>(set.cardinality());
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i+1)){
+            retVal.add(this.store.get(i));
+        }
+        return retVal;
+    }
+
+    /**
+     *
+     * @param set
+     * @return the examples in the set (repeated according to their multiplicities) in the order of their indices
+     */
+    public List<DefaultRule> toList(BitSet set){
+        List<DefaultRule> retVal = new ArrayList<DefaultRule>(this.count(set));
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i+1)){
+            DefaultRule example = this.store.get(i);
+            for (int j = 0; j < this.store.multiplicity(i); j++){
+                retVal.add(example);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     *
+     * @param examples
+     * @return bit set of the given examples, examples which are not in this set are ignored
+     */
+    public BitSet toBitSet(Collection<DefaultRule> examples){
+        BitSet retVal = new BitSet(this.size());
+        for (DefaultRule example : examples){
+            int index = this.store.indexOf(example);
+            if (index != -1){
+                retVal.set(index);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     *
+     * @param variables propositional variables represented by positive literals
+     * @return indices of the examples containing a literal with one of the variables
+     */
+    public BitSet touching(Set<Literal> variables){
+        return this.store.touching(variables);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic.learning;
+
+import ida.ilp.logic.Literal;
+import supertweety.defaults.DefaultRule;
+
+import java.util.BitSet;
+import java.util.Set;
+
+/**
+ * Distinct examples indexed from 0 with the numbers of their occurrences (multiplicities). Stores may be read
+ * concurrently once they are built.
+ */
+public interface ExampleStore {
+
+    /**
+     *
+     * @return number of distinct examples
+     */
+    int size();
+
+    /**
+     *
+     * @return number of examples including the repeated ones
+     */
+    int totalCount();
+
+    int multiplicity(int index);
+
+    DefaultRule get(int index);
+
+    /**
+     *
+     * @param example
+     * @return index of the example or -1 if it is not in the store
+     */
+    int indexOf(DefaultRule example);
+
+    /**
+     *
+     * @param variables propositional variables represented by positive literals
+     * @return indices of the examples containing a literal with one of the variables
+     */
+    BitSet touching(Set<Literal> variables);
+}
@@ -16,10 +16,12 @@ import ida.utils.Combinatorics;
 import ida.utils.Sugar;
 import ida.utils.tuples.Pair;
 import supertweety.defaults.DefaultRule;
+import supertweety.possibilistic.PersistentStratification;
 import supertweety.possibilistic.PossibilisticLogicTheory;
 import supertweety.possibilistic.PossibilisticUtils;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * Created by kuzelkao_cardiff on 03/11/15.
@@ -28,11 +30,11 @@ public class HeuristicPossibilisticLearner {
 
     private List<Clause> hardRules;
 
-    private List<DefaultRule> defaults, nondefaults;
+    private ExampleStore defaults, nondefaults;
 
     private int candidatesSampleSize = 100;
 
-    private static Random random = new Random(2015);
+    private long seed = 2015;
 
     private List<PossibilisticLogicTheory> incrementalLearnerHistory;
 
@@ -41,11 +43,20 @@ public class HeuristicPossibilisticLearner {
     private long timeout = Long.MAX_VALUE;
 
     public HeuristicPossibilisticLearner(List<DefaultRule> defaults, List<DefaultRule> nondefaults){
+        this(new ListExampleStore(defaults), new ListExampleStore(nondefaults));
+    }
+
+    public HeuristicPossibilisticLearner(List<DefaultRule> defaults, List<DefaultRule> nondefaults, List<Clause> hardRules){
+        this(defaults, nondefaults);
+        this.hardRules = hardRules;
+    }
+
+    public HeuristicPossibilisticLearner(ExampleStore defaults, ExampleStore nondefaults){
         this.defaults = defaults;
         this.nondefaults = nondefaults;
     }
 
-    public HeuristicPossibilisticLearner(List<DefaultRule> defaults, List<DefaultRule> nondefaults, List<Clause> hardRules){
+    public HeuristicPossibilisticLearner(ExampleStore defaults, ExampleStore nondefaults, List<Clause> hardRules){
         this(defaults, nondefaults);
         this.hardRules = hardRules;
     }
@@ -61,23 +72,36 @@ public class HeuristicPossibilisticLearner {
 
         long startTime = System.currentTimeMillis();
 
+        Random random = new Random(this.seed);
+
         double bestScore = Double.NEGATIVE_INFINITY;
 
+        ExampleSet defaultExamples = new ExampleSet(this.defaults);
+        ExampleSet nondefaultExamples = new ExampleSet(this.nondefaults);
+
+        //coverage of the examples by bestStratification
+        IncrementalCoverage defaultsCoverage = new IncrementalCoverage(bestStratification, defaultExamples);
+        IncrementalCoverage nondefaultsCoverage = new IncrementalCoverage(bestStratification, nondefaultExamples);
+
+        //most of the sampled candidates recur in the next iterations
+        CandidateCache candidateCache = new CandidateCache();
+
         outerLoop: for (int i = 0; i < iterations; i++){
             System.out.println("Iteration: "+(i+1)+", time from start: "+(System.currentTimeMillis()-startTime));
 
 
             Set<Clause> candidateClauses = makeCandidateSample(
-                    Sugar.collectionDifference(this.defaults, LearningUtils.coveredExamples_parallelized(bestStratification, this.defaults)),
-                    LearningUtils.coveredExamples_parallelized(bestStratification, this.nondefaults), this.candidatesSampleSize, !useDefaultsAsFeatures);
+                    defaultExamples, defaultsCoverage.uncovered(),
+                    nondefaultExamples, nondefaultsCoverage.covered(), this.candidatesSampleSize, !useDefaultsAsFeatures, random);
 
-            Clause bestCandidateClause = selectBest(candidateClauses, bestStratification, this.defaults, this.nondefaults, this.hardRules, startTime, timeout);
+            Pair<Clause,Pair<PossibilisticLogicTheory,Double>> selected = selectBest(candidateClauses, bestStratification, defaultsCoverage, nondefaultsCoverage, this.hardRules, candidateCache, Double.NEGATIVE_INFINITY, startTime, timeout);
 
-            if (System.currentTimeMillis()-startTime >= timeout){
+            if (System.currentTimeMillis()-startTime >= timeout || selected == null){
                 break outerLoop;
             }
 
-            Pair<PossibilisticLogicTheory,Double> bestCandidateStratification = addRuleGreedily(bestStratification, bestCandidateClause, this.defaults, this.nondefaults, this.hardRules);
+            Clause bestCandidateClause = selected.r;
+            Pair<PossibilisticLogicTheory,Double> bestCandidateStratification = selected.s;
 
             // Greedy minimization of the best sampled candidate feature
             if (!useDefaultsAsFeatures) {
@@ -86,10 +110,15 @@ public class HeuristicPossibilisticLearner {
                     for (Literal l : bestCandidateClause.literals()) {
                         candidateClauses.add(new Clause(Sugar.setDifference(bestCandidateClause.literals(), Sugar.<Literal>set(l))));
                     }
-                    Clause newCandidateForBestClause = selectBest(candidateClauses, bestStratification, this.defaults, this.nondefaults, this.hardRules, startTime, timeout);
-                    Pair<PossibilisticLogicTheory, Double> newCandidateForBestStratification = addRuleGreedily(bestStratification, newCandidateForBestClause, this.defaults, this.nondefaults, this.hardRules);
+                    //shorter clauses scoring below the current one cannot be accepted, so their evaluation is cut off early
+                    selected = selectBest(candidateClauses, bestStratification, defaultsCoverage, nondefaultsCoverage, this.hardRules, candidateCache, bestCandidateStratification.s, startTime, timeout);
+                    if (selected == null){
+                        break;
+                    }
+                    Clause newCandidateForBestClause = selected.r;
+                    Pair<PossibilisticLogicTheory, Double> newCandidateForBestStratification = selected.s;
                     if (newCandidateForBestStratification.s > bestCandidateStratification.s ||
-                            (newCandidateForBestStratification.s == bestCandidateStratification.s && newCandidateForBestStratification.r.toLevelList().size() == bestStratification.toLevelList().size())) {
+                            (newCandidateForBestStratification.s == bestCandidateStratification.s && newCandidateForBestStratification.r.weights().size() == bestStratification.weights().size())) {
                         bestCandidateClause = newCandidateForBestClause;
                         bestCandidateStratification = newCandidateForBestStratification;
                         System.out.println("greedy working!");
@@ -108,17 +137,25 @@ public class HeuristicPossibilisticLearner {
                 bestScore = bestCandidateStratification.s;
                 bestStratification = PossibilisticUtils.removeDrownedLevels(bestCandidateStratification.r);
                 bestStratification = PossibilisticUtils.simplifyByUnitPropagation(bestStratification);
-                bestStratification = prune(bestStratification, this.defaults, this.nondefaults, hardRules == null ? null : new LinkedHashSet<Clause>(hardRules));
+                IncrementalPruning pruning = new IncrementalPruning(bestStratification, defaultExamples, nondefaultExamples, hardRules == null ? null : new LinkedHashSet<Clause>(hardRules));
+                bestStratification = pruning.prune();
+                defaultsCoverage = pruning.defaultsCoverage();
+                nondefaultsCoverage = pruning.nondefaultsCoverage();
 
                 // Greedily repositioning the already present rules
-                for (Clause rule : Sugar.<Clause>flatten(bestStratification.toLevelList())){
+                for (Clause rule : bestStratification.getRules()){
                     if (hardRules == null || !hardRules.contains(rule)) {
-                        PossibilisticLogicTheory auxTheory = PossibilisticLogicTheory.fromStratification(bestStratification.toLevelList());
-                        auxTheory.remove(rule);
-                        Pair<PossibilisticLogicTheory, Double> auxPair = addRuleGreedily(auxTheory, rule, this.defaults, this.nondefaults, this.hardRules);
+                        PossibilisticLogicTheory auxTheory = bestStratification.toPersistentStratification().remove(rule).toTheory();
+                        IncrementalCoverage auxDefaultsCoverage = defaultsCoverage.withoutRule(auxTheory, rule);
+                        IncrementalCoverage auxNondefaultsCoverage = nondefaultsCoverage.withoutRule(auxTheory, rule);
+                        Pair<PossibilisticLogicTheory, Double> auxPair = addRuleGreedily(auxTheory, rule, auxDefaultsCoverage, auxNondefaultsCoverage, this.hardRules);
                         if (auxPair.s > bestScore) {
                             bestStratification = auxPair.r;
                             bestScore = auxPair.s;
+                            auxDefaultsCoverage.setTheory(bestStratification, rule);
+                            auxNondefaultsCoverage.setTheory(bestStratification, rule);
+                            defaultsCoverage = auxDefaultsCoverage;
+                            nondefaultsCoverage = auxNondefaultsCoverage;
                         }
                     }
                 }
@@ -129,65 +166,155 @@ public class HeuristicPossibilisticLearner {
 
             this.incrementalLearnerHistory.add(bestStratification);
             System.out.println("Best score so far: "+bestScore);
+            if (Settings.useCoverageCache){
+                System.out.println("Coverage caches: "+defaultExamples.coverageCache()+", "+nondefaultExamples.coverageCache());
+            }
+            if (Settings.useUnsatCores){
+                System.out.println("Unsat cores: "+defaultExamples.unsatCoreCache()+", "+nondefaultExamples.unsatCoreCache());
+            }
             System.out.println(bestStratification+"\n\n");
             if (System.currentTimeMillis()-startTime >= timeout){
                 break outerLoop;
             }
         }
-        PossibilisticLogicTheory filtered = PossibilisticUtils.removeImpliedRules(bestStratification);
+        PossibilisticLogicTheory filtered = PossibilisticUtils.removeImpliedRules_parallelized(bestStratification);
 
         return filtered;
     }
 
-    private static PossibilisticLogicTheory prune(PossibilisticLogicTheory possibilisticLogicTheory, List<DefaultRule> defaults, List<DefaultRule> nondefaults, Set<Clause> hardRules){
-        double bestScore = score(possibilisticLogicTheory, defaults, nondefaults);
-        PossibilisticLogicTheory retVal = PossibilisticLogicTheory.fromStratification(possibilisticLogicTheory.toLevelList());
-        for (double alpha : possibilisticLogicTheory.weights()){
-            for (Clause rule : possibilisticLogicTheory.getAlphaLevel(alpha)){
-                if (hardRules == null || !hardRules.contains(rule)) {
-                    retVal.remove(rule);
-                    double score = score(retVal, defaults, nondefaults);
-                    if (score >= bestScore) {
-                        System.out.println("Pruning: " + (score - bestScore));
-                        bestScore = score;
-                    } else {
-                        retVal.addRule(rule, alpha);
-                    }
+    /**
+     * Evaluates the candidates in parallel. The workers share the best score found so far and stop evaluating
+     * a candidate as soon as it cannot reach it. Scores of the candidates found in the cache are not re-computed
+     * unless the candidate may be selected.
+     * @param candidates
+     * @param possibilisticLogicTheory
+     * @param defaultsCoverage
+     * @param nondefaultsCoverage
+     * @param hardRules
+     * @param cache cache of the scores of the candidates, may be null
+     * @param lowerBound candidates scoring below lowerBound are not returned
+     * @param startTime
+     * @param timeout
+     * @return the best candidate together with the result of addRuleGreedily for it, or null if no candidate reaches
+     * lowerBound or if the time is out
+     */
+    private static Pair<Clause,Pair<PossibilisticLogicTheory,Double>> selectBest(Collection<Clause> candidates, final PossibilisticLogicTheory possibilisticLogicTheory,
+                                                                                 final IncrementalCoverage defaultsCoverage, final IncrementalCoverage nondefaultsCoverage,
+                                                                                 final List<Clause> hardRules, CandidateCache cache, double lowerBound, final long startTime, final long timeout){
+        //built before the workers start so that they only read the cached stratification
+        possibilisticLogicTheory.toPersistentStratification();
+        final CandidateCache usedCache = cache != null && !LearningUtils.hasDrownedLevels(possibilisticLogicTheory) ? cache : null;
+        final List<Clause> candidateList = new ArrayList<Clause>(candidates);
+        Double[] cachedScores = new Double[candidateList.size()];
+        double bestCachedScore = lowerBound;
+        if (usedCache != null){
+            for (int i = 0; i < candidateList.size(); i++){
+                cachedScores[i] = usedCache.score(candidateList.get(i), possibilisticLogicTheory, defaultsCoverage, nondefaultsCoverage);
+                if (cachedScores[i] != null){
+                    bestCachedScore = Math.max(bestCachedScore, cachedScores[i]);
                 }
             }
         }
-        return retVal;
-    }
-
-    private static Clause selectBest(Collection<Clause> candidates, PossibilisticLogicTheory possibilisticLogicTheory, List<DefaultRule> defaults, List<DefaultRule> nondefaults, List<Clause> hardRules, long startTime, long timeout){
-        double bestScore = Double.NEGATIVE_INFINITY;
+        final BestScore sharedBest = new BestScore(bestCachedScore);
+        List<Integer> evaluatedIndices = new ArrayList<Integer>();
+        List<Callable<Pair<PossibilisticLogicTheory,Double>>> tasks = new ArrayList<Callable<Pair<PossibilisticLogicTheory,Double>>>();
+        for (int i = 0; i < candidateList.size(); i++){
+            if (cachedScores[i] == null){
+                evaluatedIndices.add(i);
+                tasks.add(evaluationTask(candidateList.get(i), possibilisticLogicTheory, defaultsCoverage, nondefaultsCoverage, hardRules, usedCache, sharedBest, startTime, timeout));
+            }
+        }
+        List<Pair<PossibilisticLogicTheory,Double>> evaluated = Settings.invokeAll(tasks);
+        if (System.currentTimeMillis()-startTime > timeout){
+            return null;
+        }
+        List<Pair<PossibilisticLogicTheory,Double>> results = new ArrayList<Pair<PossibilisticLogicTheory,Double>>(Collections.<Pair<PossibilisticLogicTheory,Double>>nCopies(candidateList.size(), null));
+        double maxScore = bestCachedScore;
+        for (int i = 0; i < evaluated.size(); i++){
+            Pair<PossibilisticLogicTheory,Double> pair = evaluated.get(i);
+            results.set(evaluatedIndices.get(i), pair);
+            if (pair.r != null){
+                maxScore = Math.max(maxScore, pair.s);
+            }
+        }
+        //the theories are constructed only for the cached candidates which may be selected
+        evaluatedIndices.clear();
+        tasks.clear();
+        for (int i = 0; i < candidateList.size(); i++){
+            if (cachedScores[i] != null && cachedScores[i] == maxScore){
+                evaluatedIndices.add(i);
+                tasks.add(evaluationTask(candidateList.get(i), possibilisticLogicTheory, defaultsCoverage, nondefaultsCoverage, hardRules, null, null, startTime, timeout));
+            }
+        }
+        evaluated = Settings.invokeAll(tasks);
+        if (System.currentTimeMillis()-startTime > timeout){
+            return null;
+        }
+        for (int i = 0; i < evaluated.size(); i++){
+            results.set(evaluatedIndices.get(i), evaluated.get(i));
+        }
+        //the results are compared in the order of the candidates, so the selected one does not depend on the scheduling
+        double bestScore = lowerBound;
         double bestNumberOfLevels = Double.POSITIVE_INFINITY;
         double bestClauseLength = Double.POSITIVE_INFINITY;
-        long bestsEvaluationTime = Long.MAX_VALUE;
-        Clause bestClause = null;
-        for (Clause candidate : candidates){
-            if (System.currentTimeMillis()-startTime > timeout){
-                return null;
+        Pair<Clause,Pair<PossibilisticLogicTheory,Double>> best = null;
+        for (int i = 0; i < candidateList.size(); i++){
+            Pair<PossibilisticLogicTheory, Double> pair = results.get(i);
+            if (pair == null || pair.r == null || pair.s < lowerBound){
+                continue;
             }
-            Pair<PossibilisticLogicTheory, Double> pair = addRuleGreedily(possibilisticLogicTheory, candidate, defaults, nondefaults, hardRules);
-            long m1 = System.currentTimeMillis();
             double score = pair.s;
-            long m2 = System.currentTimeMillis();
-            long evaluationTime = m2-m1;
             double numberOfLevels = pair.r.weights().size();
-            double clauseLength = candidate.countLiterals();
-            if (score > bestScore ||
+            double clauseLength = candidateList.get(i).countLiterals();
+            if (best == null || score > bestScore ||
                     (score == bestScore && numberOfLevels < bestNumberOfLevels) ||
-                    (score == bestScore && numberOfLevels == bestNumberOfLevels && clauseLength < bestClauseLength)
-                    || (score == bestScore && numberOfLevels == bestNumberOfLevels && clauseLength == bestClauseLength && evaluationTime < bestsEvaluationTime)) {
+                    (score == bestScore && numberOfLevels == bestNumberOfLevels && clauseLength < bestClauseLength)) {
                 bestScore = score;
                 bestNumberOfLevels = numberOfLevels;
                 bestClauseLength = clauseLength;
-                bestClause = candidate;
-                bestsEvaluationTime = evaluationTime;
+                best = new Pair<Clause,Pair<PossibilisticLogicTheory,Double>>(candidateList.get(i), pair);
+            }
+        }
+        return best;
+    }
+
+    private static Callable<Pair<PossibilisticLogicTheory,Double>> evaluationTask(final Clause candidate, final PossibilisticLogicTheory possibilisticLogicTheory,
+                                                                                final IncrementalCoverage defaultsCoverage, final IncrementalCoverage nondefaultsCoverage,
+                                                                                final List<Clause> hardRules, final CandidateCache cache, final BestScore sharedBest,
+                                                                                final long startTime, final long timeout){
+        return new Callable<Pair<PossibilisticLogicTheory, Double>>() {
+            @Override
+            public Pair<PossibilisticLogicTheory, Double> call() throws Exception {
+                if (System.currentTimeMillis()-startTime > timeout){
+                    return null;
+                }
+                boolean drownsLevels = LearningUtils.drownsLevels(candidate, possibilisticLogicTheory);
+                Pair<PossibilisticLogicTheory,Double> retVal = addRuleGreedily(possibilisticLogicTheory, candidate, defaultsCoverage, nondefaultsCoverage, hardRules, drownsLevels, sharedBest);
+                //scores of the candidates cut off early are not exact
+                if (cache != null && !drownsLevels && retVal.r != null){
+                    cache.put(candidate, retVal.s, possibilisticLogicTheory, defaultsCoverage, nondefaultsCoverage);
+                }
+                return retVal;
             }
+        };
+    }
+
+    //the best score found so far by the workers in selectBest
+    private static class BestScore {
+
+        private double value;
+
+        private BestScore(double value){
+            this.value = value;
+        }
+
+        private synchronized double get(){
+            return this.value;
+        }
+
+        private synchronized void offer(double score){
+            this.value = Math.max(this.value, score);
         }
-        return bestClause;
     }
 
     public List<PossibilisticLogicTheory> incrementalLearnerHistory(){
@@ -195,99 +322,205 @@ public class HeuristicPossibilisticLearner {
     }
 
     public static Pair<PossibilisticLogicTheory,Double> addRuleGreedily(PossibilisticLogicTheory theory, Clause newRule, List<DefaultRule> defaults, List<DefaultRule> nonDefaults, List<Clause> hardRules){
-        PossibilisticLogicTheory best = null;
-        double bestScore = Double.NEGATIVE_INFINITY;
-        List<Set<Clause>> levels = theory.toLevelList();
+        return addRuleGreedily(theory, newRule, new ExampleSet(defaults), new ExampleSet(nonDefaults), hardRules);
+    }
+
+    public static Pair<PossibilisticLogicTheory,Double> addRuleGreedily(PossibilisticLogicTheory theory, Clause newRule, ExampleSet defaults, ExampleSet nonDefaults, List<Clause> hardRules){
+        return addRuleGreedily(theory, newRule, new IncrementalCoverage(theory, defaults), new IncrementalCoverage(theory, nonDefaults), hardRules);
+    }
+
+    /**
+     *
+     * @param theory
+     * @param newRule
+     * @param defaultsCoverage coverage of the defaults by theory
+     * @param nonDefaultsCoverage coverage of the non-defaults by theory
+     * @param hardRules
+     * @return
+     */
+    public static Pair<PossibilisticLogicTheory,Double> addRuleGreedily(PossibilisticLogicTheory theory, Clause newRule, IncrementalCoverage defaultsCoverage, IncrementalCoverage nonDefaultsCoverage, List<Clause> hardRules){
+        return addRuleGreedily(theory, newRule, defaultsCoverage, nonDefaultsCoverage, hardRules, LearningUtils.drownsLevels(newRule, theory), null);
+    }
+
+    /**
+     * Same as addRuleGreedily but positions whose score cannot reach the shared best score are not evaluated completely.
+     * drownsLevels is the result of LearningUtils.drownsLevels for newRule and theory.
+     * If no position reaches it, the returned pair may be (null, -infinity) or a position scoring below it.
+     */
+    private static Pair<PossibilisticLogicTheory,Double> addRuleGreedily(PossibilisticLogicTheory theory, Clause newRule, IncrementalCoverage defaultsCoverage, IncrementalCoverage nonDefaultsCoverage, List<Clause> hardRules,
+                                                                         boolean drownsLevels, BestScore sharedBest){
+        //only the examples sharing a component with the new rule need to be re-evaluated (or all if levels get drowned)
+        BitSet affectedDefaults = defaultsCoverage.possiblyAffectedExamples(newRule, drownsLevels);
+        BitSet affectedNonDefaults = nonDefaultsCoverage.possiblyAffectedExamples(newRule, drownsLevels);
+        int fixedDefaults = defaultsCoverage.countCoveredExcept(affectedDefaults);
+        //the non-defaults outside of affectedNonDefaults stay covered at any position of the new rule
+        int fixedNonDefaults = nonDefaultsCoverage.countCoveredExcept(affectedNonDefaults);
+        if (sharedBest != null && fixedDefaults+defaultsCoverage.examples().count(affectedDefaults)-fixedNonDefaults < sharedBest.get()){
+            return new Pair<PossibilisticLogicTheory,Double>(null, Double.NEGATIVE_INFINITY);
+        }
+        //all candidate stratifications share the levels of the original theory
+        PersistentStratification levels = theory.toPersistentStratification();
 
         Set<Clause> hardRulesInTheory = null;
         if (hardRules != null && hardRules.size() > 0){
-            hardRulesInTheory = levels.remove(levels.size()-1);
+            hardRulesInTheory = levels.level(levels.size()-1);
+            levels = levels.removeLevel(levels.size()-1);
         }
         int subsumedFromLevelXBelow = -1;
-        outerLoop: for (int i = levels.size()-1; i > 0; i--){
-            for (Clause c : levels.get(i)){
-                if (Sugar.isSubsetOf(c.literals(), newRule.literals())){
-                    subsumedFromLevelXBelow = i;
-                    break outerLoop;
+        Set<Clause> subsuming = theory.subsumptionIndex().subsetsOf(newRule);
+        if (!subsuming.isEmpty()){
+            outerLoop: for (int i = levels.size()-1; i > 0; i--){
+                for (Clause c : subsuming){
+                    if (levels.level(i).contains(c)){
+                        subsumedFromLevelXBelow = i;
+                        break outerLoop;
+                    }
                 }
             }
         }
 
-
+        //the positions of the new rule in the order in which they are tried (ties are resolved in favour of the first one),
+        //ruleLevels and levelsAbove describe them as required by InsertionCoverage
+        List<PersistentStratification> positions = new ArrayList<PersistentStratification>();
+        List<Integer> ruleLevels = new ArrayList<Integer>();
+        List<Integer> levelsAbove = new ArrayList<Integer>();
         for (int i = subsumedFromLevelXBelow+1; i < levels.size(); i++){
-            levels.get(i).add(newRule);
-            if (hardRulesInTheory != null){
-                levels.add(hardRulesInTheory);
-            }
-            PossibilisticLogicTheory plt = PossibilisticLogicTheory.fromStratification(levels);
-            double score = score(plt, defaults, nonDefaults);
-            if (score > bestScore){
-                bestScore = score;
-                best = plt;
-            }
-            levels.get(i).remove(newRule);
-            if (hardRulesInTheory != null){
-                levels.remove(levels.size()-1);
-            }
+            positions.add(levels.addToLevel(i, newRule));
+            ruleLevels.add(i);
+            levelsAbove.add(i+1);
         }
         //growing from bottom
-        List<Set<Clause>> growingFromBottom = new ArrayList<Set<Clause>>();
-        growingFromBottom.add(Sugar.<Clause>set(newRule));
-        growingFromBottom.addAll(levels);
         if (subsumedFromLevelXBelow == -1){
-            if (hardRulesInTheory != null){
-                growingFromBottom.add(hardRulesInTheory);
-            }
-            PossibilisticLogicTheory pltGrowingFromBottom = PossibilisticLogicTheory.fromStratification(growingFromBottom);
-            double score = score(pltGrowingFromBottom, defaults, nonDefaults);
-            if (score > bestScore) {
-                bestScore = score;
-                best = pltGrowingFromBottom;
-            }
+            positions.add(levels.insertLevel(0, Sugar.<Clause>set(newRule)));
+            ruleLevels.add(0);
+            levelsAbove.add(0);
         }
         //growing from top
-        List<Set<Clause>> growingFromTop = new ArrayList<Set<Clause>>();
-        growingFromTop.addAll(levels);
-        growingFromTop.add(Sugar.<Clause>set(newRule));
-        if (hardRulesInTheory != null){
-            growingFromTop.add(hardRulesInTheory);
-        }
-        PossibilisticLogicTheory pltGrowingFromTop = PossibilisticLogicTheory.fromStratification(growingFromTop);
-        double score = score(pltGrowingFromTop, defaults, nonDefaults);
-        if (score > bestScore){
-            best = pltGrowingFromTop;
-            bestScore = score;
-        }
+        positions.add(levels.insertLevel(levels.size(), Sugar.<Clause>set(newRule)));
+        ruleLevels.add(levels.size());
+        levelsAbove.add(levels.size());
         //inserting new level
         for (int i = subsumedFromLevelXBelow+1; i < levels.size(); i++){
-            List<Set<Clause>> auxLevels = new ArrayList<Set<Clause>>();
-            auxLevels.addAll(levels.subList(0, i));
-            auxLevels.add(Sugar.<Clause>set(newRule));
-            auxLevels.addAll(levels.subList(i, levels.size()));
-            if (hardRulesInTheory != null) {
-                auxLevels.add(hardRulesInTheory);
+            positions.add(levels.insertLevel(i, Sugar.<Clause>set(newRule)));
+            ruleLevels.add(i);
+            levelsAbove.add(i);
+        }
+
+        PossibilisticLogicTheory best = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        if (drownsLevels){
+            for (PersistentStratification position : positions){
+                PossibilisticLogicTheory plt = withHardRules(position, hardRulesInTheory).toTheory();
+                double score = score(plt, defaultsCoverage, affectedDefaults, nonDefaultsCoverage, affectedNonDefaults, fixedNonDefaults, threshold(bestScore, sharedBest));
+                if (score > bestScore){
+                    bestScore = score;
+                    best = plt;
+                }
             }
-            PossibilisticLogicTheory plt = PossibilisticLogicTheory.fromStratification(auxLevels);
-            score = score(plt, defaults, nonDefaults);
-            if (score > bestScore){
-                bestScore = score;
-                best = plt;
+        } else {
+            //all the positions are scored in one pass over the affected examples
+            InsertionCoverage insertionCoverage = new InsertionCoverage(withHardRules(levels, hardRulesInTheory), newRule);
+            int[] ruleLevelsArray = toIntArray(ruleLevels);
+            int[] levelsAboveArray = toIntArray(levelsAbove);
+            int[] coveredDefaults = insertionCoverage.countCovered(defaultsCoverage.examples(), affectedDefaults, ruleLevelsArray, levelsAboveArray);
+            int[] coveredNonDefaults = insertionCoverage.countCovered(nonDefaultsCoverage.examples(), affectedNonDefaults, ruleLevelsArray, levelsAboveArray);
+            int bestPosition = -1;
+            for (int i = 0; i < positions.size(); i++){
+                double score = fixedDefaults+coveredDefaults[i]-fixedNonDefaults-coveredNonDefaults[i];
+                if (score > bestScore){
+                    bestScore = score;
+                    bestPosition = i;
+                }
             }
+            best = withHardRules(positions.get(bestPosition), hardRulesInTheory).toTheory();
+        }
+        if (sharedBest != null){
+            sharedBest.offer(bestScore);
         }
         return new Pair<PossibilisticLogicTheory,Double>(best, bestScore);
     }
 
+    private static int[] toIntArray(List<Integer> list){
+        int[] retVal = new int[list.size()];
+        for (int i = 0; i < retVal.length; i++){
+            retVal[i] = list.get(i);
+        }
+        return retVal;
+    }
+
+    private static double threshold(double bestScore, BestScore sharedBest){
+        return sharedBest == null ? bestScore : Math.max(bestScore, sharedBest.get());
+    }
+
+    private static PersistentStratification withHardRules(PersistentStratification levels, Set<Clause> hardRulesInTheory){
+        return hardRulesInTheory == null ? levels : levels.insertLevel(levels.size(), hardRulesInTheory);
+    }
+
     public static double score(PossibilisticLogicTheory plt, List<DefaultRule> defaults, List<DefaultRule> nondefaults){
-        return LearningUtils.coveredExamples_parallelized(plt, defaults).size()-LearningUtils.coveredExamples_parallelized(plt, nondefaults).size();
+        return score(plt, new ExampleSet(defaults), new ExampleSet(nondefaults));
     }
 
-    protected static Set<Clause> makeCandidateSample(Collection<DefaultRule> defaults, Collection<DefaultRule> nondefaults, int sampleSize, boolean sampleSubRules){
-        List<DefaultRule> pool = new ArrayList<DefaultRule>(new LinkedHashSet<DefaultRule>(defaults));
-        for (DefaultRule nondefault : new LinkedHashSet<DefaultRule>(nondefaults)){
-            Literal l = Sugar.chooseRandomOne(new ArrayList<Literal>(nondefault.consequent().literals()), random);
-            pool.add(new DefaultRule(nondefault.antecedent(), new Clause(l.negation())));
+    public static double score(PossibilisticLogicTheory plt, ExampleSet defaults, ExampleSet nondefaults){
+        return defaults.count(LearningUtils.coveredExamples_parallelized(plt, defaults))-nondefaults.count(LearningUtils.coveredExamples_parallelized(plt, nondefaults));
+    }
+
+    /**
+     *
+     * @return the score of the candidate or -infinity if it is lower than threshold
+     */
+    private static double score(PossibilisticLogicTheory candidate, IncrementalCoverage defaultsCoverage, BitSet affectedDefaults,
+                                IncrementalCoverage nondefaultsCoverage, BitSet affectedNondefaults, int fixedNondefaults, double threshold){
+        int coveredDefaults = defaultsCoverage.countCoveredWithNewRule(candidate, affectedDefaults);
+        if (coveredDefaults-fixedNondefaults < threshold){
+            return Double.NEGATIVE_INFINITY;
+        }
+        return coveredDefaults-nondefaultsCoverage.countCoveredWithNewRule(candidate, affectedNondefaults);
+    }
+
+    /**
+     * Samples candidate rules from a pool consisting of the distinct uncovered defaults and of the distinct covered
+     * non-defaults, each of them with a randomly chosen literal of its consequent negated. The number of sampled
+     * examples is at most the number of the uncovered defaults (including the repeated ones). Only the sampled
+     * examples are retrieved from the example sets.
+     *
+     * @param defaults
+     * @param uncoveredDefaults indices of the default examples to sample from
+     * @param nondefaults
+     * @param coveredNondefaults indices of the non-default examples to sample from
+     * @param sampleSize
+     * @param sampleSubRules if true, random sub-rules of the sampled rules are used as the candidates
+     * @param random
+     * @return
+     */
+    protected static Set<Clause> makeCandidateSample(ExampleSet defaults, BitSet uncoveredDefaults, ExampleSet nondefaults, BitSet coveredNondefaults, int sampleSize, boolean sampleSubRules, final Random random){
+        //the pool consists of the distinct uncovered defaults followed by the distinct covered non-defaults
+        int poolSize = uncoveredDefaults.cardinality()+coveredNondefaults.cardinality();
+        int k = Math.min(poolSize, Math.min(sampleSize, defaults.count(uncoveredDefaults)));
+        //Floyd's algorithm for sampling k distinct positions from the pool
+        TreeSet<Integer> positions = new TreeSet<Integer>();
+        for (int j = poolSize-k; j < poolSize; j++){
+            int t = random.nextInt(j+1);
+            if (!positions.add(t)){
+                positions.add(j);
+            }
+        }
+        Set<DefaultRule> candidateDefaultRules = new LinkedHashSet<DefaultRule>();
+        Integer next = positions.pollFirst();
+        int position = 0;
+        for (int i = uncoveredDefaults.nextSetBit(0); i >= 0 && next != null; i = uncoveredDefaults.nextSetBit(i+1), position++){
+            if (position == next){
+                candidateDefaultRules.add(defaults.get(i));
+                next = positions.pollFirst();
+            }
+        }
+        for (int i = coveredNondefaults.nextSetBit(0); i >= 0 && next != null; i = coveredNondefaults.nextSetBit(i+1), position++){
+            if (position == next){
+                DefaultRule nondefault = nondefaults.get(i);
+                Literal l = Sugar.chooseRandomOne(new ArrayList<Literal>(nondefault.consequent().literals()), random);
+                candidateDefaultRules.add(new DefaultRule(nondefault.antecedent(), new Clause(l.negation())));
+                next = positions.pollFirst();
+            }
         }
-        Set<DefaultRule> candidateDefaultRules = Combinatorics.randomCombination(new ArrayList(pool), Math.min(sampleSize, defaults.size()), random).toSet();
         if (sampleSubRules) {
             return Sugar.<DefaultRule, Clause>funcall(candidateDefaultRules,
                     new Sugar.Fun<DefaultRule, Clause>() {
@@ -311,30 +544,6 @@ public class HeuristicPossibilisticLearner {
                 }
             });
         }
-//        List<DefaultRule> pool = new ArrayList<DefaultRule>(new LinkedHashSet<DefaultRule>(defaults));
-//        for (DefaultRule nondefault : new LinkedHashSet<DefaultRule>(nondefaults)){
-//            Literal l = Sugar.chooseRandomOne(new ArrayList<Literal>(nondefault.consequent().literals()), random);
-//            pool.addRule(new DefaultRule(nondefault.antecedent(), new Clause(l.negation())));
-//        }
-//        Set<DefaultRule> candidateDefaultRules = Combinatorics.randomCombination(new ArrayList(pool), Math.min(sampleSize, defaults.size()), random).toSet();
-//        if (sampleSubRules) {
-//            return Sugar.<DefaultRule, Clause>funcall(candidateDefaultRules,
-//                    new Sugar.Fun<DefaultRule, Clause>() {
-//                        @Override
-//                        public Clause apply(DefaultRule defaultRule) {
-//                            List<Literal> literals = Combinatorics.randomCombination(Sugar.listFromCollections(defaultRule.toMaterialImplication().literals()), random).toList();
-//                            literals.addAll(defaultRule.consequent().literals());
-//                            return new Clause(literals);
-//                        }
-//                    });
-//        } else {
-//            return Sugar.funcall(candidateDefaultRules, new Sugar.Fun<DefaultRule,Clause>(){
-//                @Override
-//                public Clause apply(DefaultRule defaultRule) {
-//                    return defaultRule.toMaterialImplication();
-//                }
-//            });
-//        }
     }
 
     public void setCandidatesSampleSize(int candidatesSampleSize) {
@@ -345,6 +554,14 @@ public class HeuristicPossibilisticLearner {
         this.useDefaultsAsFeatures = useDefaultsAsFeatures;
     }
 
+    /**
+     *
+     * @param seed seed of the random number generator used for sampling the candidate rules
+     */
+    public void setSeed(long seed){
+        this.seed = seed;
+    }
+
     public void setTimeout(long timeout){
         this.timeout = timeout;
     }
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic.learning;
+
+import ida.ilp.logic.Clause;
+import supertweety.defaults.DefaultRule;
+import supertweety.possibilistic.PossibilisticLogicTheory;
+
+import java.util.*;
+
+/**
+ * Coverage of a fixed set of examples by the current theory of the learner. The coverage of a theory obtained
+ * from the current one by adding a single rule is computed by re-evaluating only the examples which the new rule
+ * may affect (see LearningUtils.possiblyAffectedExamples), the coverage of the other examples is copied.
+ */
+public class IncrementalCoverage {
+
+    private final ExampleSet examples;
+
+    private PossibilisticLogicTheory theory;
+
+    //indices of the covered examples in the example set
+    private BitSet covered;
+
+    public IncrementalCoverage(PossibilisticLogicTheory theory, List<DefaultRule> examples){
+        this(theory, new ExampleSet(examples));
+    }
+
+    public IncrementalCoverage(PossibilisticLogicTheory theory, ExampleSet examples){
+        this.examples = examples;
+        this.setTheory(theory);
+    }
+
+    private IncrementalCoverage(PossibilisticLogicTheory theory, ExampleSet examples, BitSet covered){
+        this.examples = examples;
+        this.theory = theory;
+        this.covered = covered;
+    }
+
+    /**
+     *
+     * @param theory the current theory without the given rule
+     * @param rule
+     * @return coverage of the same examples by the theory, the current coverage is not changed
+     */
+    public IncrementalCoverage withoutRule(PossibilisticLogicTheory theory, Clause rule){
+        return new IncrementalCoverage(theory, this.examples, this.coveredWithNewRule(theory, this.possiblyAffectedExamples(rule)));
+    }
+
+    /**
+     * Replaces the current theory and evaluates the coverage of all examples.
+     * @param theory
+     */
+    public void setTheory(PossibilisticLogicTheory theory){
+        this.theory = theory;
+        this.covered = LearningUtils.coveredExamples_parallelized(theory, this.examples);
+    }
+
+    /**
+     * Replaces the current theory by a theory obtained from it by adding a single rule.
+     * @param theory
+     * @param newRule
+     */
+    public void setTheory(PossibilisticLogicTheory theory, Clause newRule){
+        this.covered = this.coveredWithNewRule(theory, newRule);
+        this.theory = theory;
+    }
+
+    /**
+     * Replaces the current theory by a theory which differs from it only in the coverage of the examples in affected.
+     * @param theory
+     * @param affected
+     * @param coveredAmongAffected indices of the examples in affected covered by the new theory
+     */
+    public void setTheory(PossibilisticLogicTheory theory, BitSet affected, BitSet coveredAmongAffected){
+        this.covered = this.coveredWith(affected, coveredAmongAffected);
+        this.theory = theory;
+    }
+
+    public PossibilisticLogicTheory theory(){
+        return this.theory;
+    }
+
+    public ExampleSet examples(){
+        return this.examples;
+    }
+
+    /**
+     *
+     * @param newRule
+     * @return indices of the examples whose coverage may change when newRule is added to the current theory
+     * (or removed from it if it is one of its rules)
+     */
+    public BitSet possiblyAffectedExamples(Clause newRule){
+        return LearningUtils.possiblyAffectedExamples(newRule, this.theory, this.examples);
+    }
+
+    /**
+     *
+     * @param newRule
+     * @param drownsLevels the result of LearningUtils.drownsLevels for newRule and the current theory
+     * @return indices of the examples whose coverage may change when newRule is added to the current theory
+     */
+    public BitSet possiblyAffectedExamples(Clause newRule, boolean drownsLevels){
+        return LearningUtils.possiblyAffectedExamples(newRule, this.theory, this.examples, drownsLevels);
+    }
+
+    /**
+     *
+     * @param candidate the current theory with the rule newRule added at an arbitrary level
+     * @param newRule
+     * @return indices of the examples covered by the candidate theory
+     */
+    public BitSet coveredWithNewRule(PossibilisticLogicTheory candidate, Clause newRule){
+        return this.coveredWithNewRule(candidate, this.possiblyAffectedExamples(newRule));
+    }
+
+    /**
+     *
+     * @param candidate the current theory with a new rule added at an arbitrary level
+     * @param affected the result of possiblyAffectedExamples for the new rule
+     * @return indices of the examples covered by the candidate theory
+     */
+    public BitSet coveredWithNewRule(PossibilisticLogicTheory candidate, BitSet affected){
+        return this.coveredWith(affected, this.coveredAmong(candidate, affected));
+    }
+
+    /**
+     *
+     * @param candidate
+     * @param affected
+     * @return indices of the examples in affected covered by the candidate theory
+     */
+    public BitSet coveredAmong(PossibilisticLogicTheory candidate, BitSet affected){
+        return LearningUtils.coveredExamples_parallelized(candidate, this.examples, affected);
+    }
+
+    /**
+     *
+     * @param affected
+     * @param coveredAmongAffected
+     * @return the current coverage with the coverage of the examples in affected replaced by coveredAmongAffected
+     */
+    public BitSet coveredWith(BitSet affected, BitSet coveredAmongAffected){
+        BitSet retVal = (BitSet)this.covered.clone();
+        retVal.andNot(affected);
+        retVal.or(coveredAmongAffected);
+        return retVal;
+    }
+
+    /**
+     *
+     * @param candidate the current theory with a new rule added at an arbitrary level
+     * @param affected the result of possiblyAffectedExamples for the new rule
+     * @return number of examples (including the repeated ones) covered by the candidate theory
+     */
+    public int countCoveredWithNewRule(PossibilisticLogicTheory candidate, BitSet affected){
+        return this.examples.count(this.coveredWithNewRule(candidate, affected));
+    }
+
+    /**
+     *
+     * @param affected
+     * @return number of covered examples (including the repeated ones) outside of affected, they remain covered
+     * whatever rule is added if affected is the result of possiblyAffectedExamples for the rule
+     */
+    public int countCoveredExcept(BitSet affected){
+        BitSet retVal = (BitSet)this.covered.clone();
+        retVal.andNot(affected);
+        return this.examples.count(retVal);
+    }
+
+    /**
+     *
+     * @return number of covered examples including the repeated ones
+     */
+    public int countCovered(){
+        return this.examples.count(this.covered);
+    }
+
+    public BitSet covered(){
+        return (BitSet)this.covered.clone();
+    }
+
+    public BitSet uncovered(){
+        BitSet retVal = this.examples.all();
+        retVal.andNot(this.covered);
+        return retVal;
+    }
+
+    public List<DefaultRule> coveredExamples(){
+        return this.examples.toList(this.covered);
+    }
+
+    public List<DefaultRule> uncoveredExamples(){
+        return this.examples.toList(this.uncovered());
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic.learning;
+
+import ida.ilp.logic.Clause;
+import supertweety.possibilistic.PersistentStratification;
+import supertweety.possibilistic.PossibilisticLogicTheory;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Pruning of a learned theory: its rules are tried one by one, starting from the lowest level, and a rule is removed
+ * if the score (covered defaults minus covered non-defaults) does not decrease without it.
+ *
+ * Removing a rule can only change the coverage of the examples which touch its connected component, so only these
+ * are evaluated. All the removals are first evaluated in parallel against the original theory and then applied
+ * in order. The parallel result for a rule is used only if no removal accepted before it affected any of its examples,
+ * otherwise the removal is evaluated again against the current theory, so the result is the same as when the rules
+ * are tried sequentially.
+ */
+public class IncrementalPruning {
+
+    private final IncrementalCoverage defaultsCoverage;
+
+    private final IncrementalCoverage nondefaultsCoverage;
+
+    private final Set<Clause> hardRules;
+
+    /**
+     *
+     * @param theory
+     * @param defaults
+     * @param nondefaults
+     * @param hardRules rules which are never removed, may be null
+     */
+    public IncrementalPruning(PossibilisticLogicTheory theory, ExampleSet defaults, ExampleSet nondefaults, Set<Clause> hardRules){
+        this.defaultsCoverage = new IncrementalCoverage(theory, defaults);
+        this.nondefaultsCoverage = new IncrementalCoverage(theory, nondefaults);
+        this.hardRules = hardRules;
+    }
+
+    /**
+     *
+     * @return the pruned theory, the coverages are updated to it
+     */
+    public PossibilisticLogicTheory prune(){
+        PossibilisticLogicTheory theory = this.defaultsCoverage.theory();
+        final List<Clause> rules = new ArrayList<Clause>();
+        for (double alpha : theory.weights()){
+            for (Clause rule : theory.getAlphaLevel(alpha)){
+                if (this.hardRules == null || !this.hardRules.contains(rule)) {
+                    rules.add(rule);
+                }
+            }
+        }
+        final PersistentStratification levels = theory.toPersistentStratification();
+        List<Callable<Removal>> tasks = new ArrayList<Callable<Removal>>();
+        for (final Clause rule : rules){
+            tasks.add(new Callable<Removal>() {
+                @Override
+                public Removal call() throws Exception {
+                    return evaluate(levels.remove(rule).toTheory(), rule);
+                }
+            });
+        }
+        List<Removal> removals = Settings.invokeAll(tasks);
+
+        //the pruned theory is kept as a persistent stratification, so that re-evaluating a removal does not copy it
+        PersistentStratification pruned = levels;
+        PossibilisticLogicTheory retVal = pruned.toTheory();
+        int bestScore = this.score();
+        //examples whose coverage has been changed by the accepted removals
+        BitSet changedDefaults = new BitSet();
+        BitSet changedNondefaults = new BitSet();
+        for (int i = 0; i < rules.size(); i++){
+            Clause rule = rules.get(i);
+            Removal removal = removals.get(i);
+            if (removal.affectedDefaults.intersects(changedDefaults) || removal.affectedNondefaults.intersects(changedNondefaults)){
+                removal = this.evaluate(pruned.remove(rule).toTheory(), rule);
+            }
+            int score = this.defaultsCoverage.examples().count(this.defaultsCoverage.coveredWith(removal.affectedDefaults, removal.coveredDefaults))-
+                    this.nondefaultsCoverage.examples().count(this.nondefaultsCoverage.coveredWith(removal.affectedNondefaults, removal.coveredNondefaults));
+            if (score >= bestScore){
+                System.out.println("Pruning: " + (score - bestScore));
+                bestScore = score;
+                pruned = pruned.remove(rule);
+                retVal = pruned.toTheory();
+                this.defaultsCoverage.setTheory(retVal, removal.affectedDefaults, removal.coveredDefaults);
+                this.nondefaultsCoverage.setTheory(retVal, removal.affectedNondefaults, removal.coveredNondefaults);
+                changedDefaults.or(removal.affectedDefaults);
+                changedNondefaults.or(removal.affectedNondefaults);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     *
+     * @return coverage of the defaults by the theory (the pruned one after calling prune())
+     */
+    public IncrementalCoverage defaultsCoverage(){
+        return this.defaultsCoverage;
+    }
+
+    /**
+     *
+     * @return coverage of the non-defaults by the theory (the pruned one after calling prune())
+     */
+    public IncrementalCoverage nondefaultsCoverage(){
+        return this.nondefaultsCoverage;
+    }
+
+    private int score(){
+        return this.defaultsCoverage.countCovered()-this.nondefaultsCoverage.countCovered();
+    }
+
+    /**
+     *
+     * @param candidate the current theory without the rule
+     * @param rule
+     * @return
+     */
+    private Removal evaluate(PossibilisticLogicTheory candidate, Clause rule){
+        BitSet affectedDefaults = this.defaultsCoverage.possiblyAffectedExamples(rule);
+        BitSet affectedNondefaults = this.nondefaultsCoverage.possiblyAffectedExamples(rule);
+        return new Removal(affectedDefaults, this.defaultsCoverage.coveredAmong(candidate, affectedDefaults),
+                affectedNondefaults, this.nondefaultsCoverage.coveredAmong(candidate, affectedNondefaults));
+    }
+
+    private static class Removal {
+
+        private final BitSet affectedDefaults, coveredDefaults, affectedNondefaults, coveredNondefaults;
+
+        private Removal(BitSet affectedDefaults, BitSet coveredDefaults, BitSet affectedNondefaults, BitSet coveredNondefaults){
+            this.affectedDefaults = affectedDefaults;
+            this.coveredDefaults = coveredDefaults;
+            this.affectedNondefaults = affectedNondefaults;
+            this.coveredNondefaults = coveredNondefaults;
+        }
+    }
+}
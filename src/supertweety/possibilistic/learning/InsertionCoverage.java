@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic.learning;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Constant;
+import ida.ilp.logic.Literal;
+import ida.utils.Sugar;
+import supertweety.defaults.DefaultRule;
+import supertweety.logic.GroundTheorySolver;
+import supertweety.misc.Utils;
+import supertweety.possibilistic.PersistentStratification;
+import supertweety.possibilistic.PossibilisticLogicTheory;
+
+import java.util.*;
+
+/**
+ * Coverage of examples by all the theories obtained by placing a new rule into a stratification, either into one
+ * of its levels or as a new level, computed for all the positions at once.
+ *
+ * For an example with antecedent A, let k0 be the lowest level such that the levels k0 and above are consistent
+ * with A and k1 the lowest level such that the levels k1 and above are consistent with A and the new rule.
+ * If the cut which starts at the level of the new rule is consistent with A (i.e. the rule is at or above
+ * k1), the example is covered iff it is implied by the levels k1 and above with the new rule. Otherwise the new rule
+ * is drowned and the example is covered iff it is implied by the levels max(k0, l) and above where l is the lowest
+ * level above the new rule - the cuts only shrink with growing l, so this holds up to some level m. Thus the coverage
+ * at all positions is given by k0, k1, m and one more entailment check, which are found by binary search with one
+ * solver per example.
+ *
+ * The stratification together with the new rule must be consistent (no levels get drowned without evidence).
+ */
+public class InsertionCoverage {
+
+    private final static Literal NEW_RULE_SELECTOR = new Literal("@newrule", 0);
+
+    //levels of the stratification from the lowest one, the new rule is never placed above the last level
+    private final List<Set<Clause>> levels;
+
+    private final Clause newRule;
+
+    //the stratification with the new rule, used for finding the rules relevant to an example
+    private final PossibilisticLogicTheory withNewRule;
+
+    private final List<Literal> selectors = new ArrayList<Literal>();
+
+    public InsertionCoverage(List<Set<Clause>> levels, Clause newRule){
+        this(PersistentStratification.fromLevels(levels), newRule);
+    }
+
+    public InsertionCoverage(PersistentStratification levels, Clause newRule){
+        this.levels = levels.toLevelList();
+        this.newRule = newRule;
+        //shares the levels with the stratification
+        this.withNewRule = levels.insertLevel(levels.size(), Sugar.<Clause>set(newRule)).toTheory();
+        for (int i = 0; i < levels.size(); i++){
+            this.selectors.add(new Literal("@level", Constant.construct(String.valueOf(i))));
+        }
+    }
+
+    /**
+     * A position of the new rule is given by ruleLevels[p], the lowest level whose cut contains the new rule
+     * (its level if it is added to an existing level, the level right above it if it forms a new level),
+     * and levelsAbove[p], the lowest level strictly above the new rule.
+     * @param examples
+     * @param indices indices of the examples which should be evaluated
+     * @param ruleLevels
+     * @param levelsAbove
+     * @return for every position, the number of the examples (including the repeated ones) covered with the new rule at the position
+     */
+    public int[] countCovered(ExampleSet examples, BitSet indices, int[] ruleLevels, int[] levelsAbove){
+        int[] retVal = new int[ruleLevels.length];
+        for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i+1)){
+            Profile profile = this.profile(examples.get(i));
+            if (profile != null){
+                for (int p = 0; p < retVal.length; p++){
+                    if (profile.covered(ruleLevels[p], levelsAbove[p])){
+                        retVal[p] += examples.multiplicity(i);
+                    }
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     *
+     * @param example
+     * @return the profile of the example or null if it is not covered at any position
+     */
+    private Profile profile(DefaultRule example){
+        Collection<Clause> relevantRules = new HashSet<Clause>(this.withNewRule.relevantSubtheory(Sugar.<Literal>iterable(example.antecedent().literals(), example.consequent().literals())).getRules());
+        Set<Literal> literalsInRelevantRules = new HashSet<Literal>();
+        for (Clause c : relevantRules){
+            literalsInRelevantRules.addAll(c.literals());
+        }
+        //the same necessary condition as in LearningUtils.isCovered
+        boolean mayBeImplied = false;
+        for (Literal l : example.consequent().literals()){
+            if (literalsInRelevantRules.contains(l) || example.antecedent().containsLiteral(l)){
+                mayBeImplied = true;
+                break;
+            }
+        }
+        if (!mayBeImplied){
+            return null;
+        }
+        List<Clause> clauses = new ArrayList<Clause>();
+        for (int i = 0; i < this.levels.size(); i++){
+            for (Clause c : this.levels.get(i)){
+                if (relevantRules.contains(c)){
+                    clauses.add(new Clause(Sugar.union(c.literals(), this.selectors.get(i).negation())));
+                }
+            }
+        }
+        if (relevantRules.contains(this.newRule)){
+            clauses.add(new Clause(Sugar.union(this.newRule.literals(), NEW_RULE_SELECTOR.negation())));
+        }
+        Query query = new Query(new GroundTheorySolver(clauses), example);
+        int n = this.levels.size();
+        int k0 = query.lowestConsistent(0, false);
+        int k1 = query.lowestConsistent(k0, true);
+        boolean c1 = k1 <= n && query.entails(k1, true);
+        //largest m in [k0, n-1] such that the levels m and above imply the example
+        int min = k0;
+        int max = n-1;
+        int m = k0-1;
+        while (max >= min){
+            int mid = (min+max)/2;
+            if (query.entails(mid, false)){
+                m = mid;
+                min = mid+1;
+            } else {
+                max = mid-1;
+            }
+        }
+        return new Profile(n, k0, k1, c1, m);
+    }
+
+    private class Query {
+
+        private final GroundTheorySolver solver;
+
+        private final Collection<Literal> antecedent;
+
+        private final Collection<Literal> negatedConsequent;
+
+        private Query(GroundTheorySolver solver, DefaultRule example){
+            this.solver = solver;
+            this.antecedent = example.antecedent().literals();
+            this.negatedConsequent = Utils.flipSigns(example.consequent()).literals();
+        }
+
+        /**
+         *
+         * @param from
+         * @param withNewRule
+         * @return the lowest level l >= from such that the levels l and above (with the new rule) are consistent
+         * with the antecedent, levels.size() if only the new rule is, levels.size()+1 if none is
+         */
+        private int lowestConsistent(int from, boolean withNewRule){
+            int n = levels.size();
+            if (!this.consistent(n, withNewRule)){
+                return n+1;
+            }
+            int min = from;
+            int max = n-1;
+            int retVal = n;
+            while (max >= min){
+                int mid = (min+max)/2;
+                if (this.consistent(mid, withNewRule)){
+                    retVal = mid;
+                    max = mid-1;
+                } else {
+                    min = mid+1;
+                }
+            }
+            return retVal;
+        }
+
+        private boolean consistent(int fromLevel, boolean withNewRule){
+            return this.solver.solve(this.assumptions(fromLevel, withNewRule, this.antecedent)) != null;
+        }
+
+        private boolean entails(int fromLevel, boolean withNewRule){
+            return this.solver.solve(this.assumptions(fromLevel, withNewRule, Sugar.union(this.antecedent, this.negatedConsequent))) == null;
+        }
+
+        private List<Literal> assumptions(int fromLevel, boolean withNewRule, Collection<Literal> literals){
+            List<Literal> retVal = new ArrayList<Literal>(literals);
+            retVal.addAll(selectors.subList(fromLevel, selectors.size()));
+            if (withNewRule){
+                retVal.add(NEW_RULE_SELECTOR);
+            }
+            return retVal;
+        }
+    }
+
+    private static class Profile {
+
+        private final int numLevels, k0, k1, m;
+
+        private final boolean c1;
+
+        private Profile(int numLevels, int k0, int k1, boolean c1, int m){
+            this.numLevels = numLevels;
+            this.k0 = k0;
+            this.k1 = k1;
+            this.c1 = c1;
+            this.m = m;
+        }
+
+        private boolean covered(int ruleLevel, int levelAbove){
+            if (ruleLevel >= this.k1){
+                return this.c1;
+            }
+            int cut = Math.max(this.k0, levelAbove);
+            return cut < this.numLevels && cut <= this.m;
+        }
+    }
+}
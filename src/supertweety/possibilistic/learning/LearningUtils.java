@@ -13,140 +13,194 @@ package supertweety.possibilistic.learning;
 import ida.ilp.logic.Clause;
 import ida.ilp.logic.Literal;
 import ida.utils.Sugar;
-import ida.utils.collections.MultiList;
-import ida.utils.collections.MultiMap;
 import supertweety.defaults.DefaultRule;
 import supertweety.logic.GroundTheorySolver;
 import supertweety.misc.Utils;
+import supertweety.possibilistic.Globals;
+import supertweety.possibilistic.PersistentStratification;
 import supertweety.possibilistic.PossibilisticLogicTheory;
 import supertweety.possibilistic.PossibilisticUtils;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Created by kuzelkao_cardiff on 03/11/15.
  */
 public class LearningUtils {
 
-    static int toughest = 0;
+    /**
+     *
+     * @param stratification
+     * @param examples
+     * @return the covered examples (repeated examples are evaluated only once) in the order of their first occurrence
+     */
+    public static List<DefaultRule> coveredExamples_parallelized(PossibilisticLogicTheory stratification, List<DefaultRule> examples){
+        //a new set would never get a cache hit
+        ExampleSet exampleSet = ExampleSet.uncached(examples);
+        return exampleSet.toList(coveredExamples_parallelized(stratification, exampleSet));
+    }
 
-    public static List<DefaultRule> coveredExamples_parallelized(final PossibilisticLogicTheory stratification, List<DefaultRule> examples){
-        long m1 = System.currentTimeMillis();
-        MultiList<DefaultRule,DefaultRule> ml = new MultiList<DefaultRule,DefaultRule>();
-        for (DefaultRule example : examples){
-            ml.put(example, example);
-        }
+    public static BitSet coveredExamples_parallelized(PossibilisticLogicTheory stratification, ExampleSet examples){
+        return coveredExamples_parallelized(stratification, examples, examples.all());
+    }
 
-        List<List<DefaultRule>> chunks = Sugar.splitList(new ArrayList<DefaultRule>(ml.keySet()), Settings.processors);
-        final List<DefaultRule> coveredRules = Collections.synchronizedList(new ArrayList<DefaultRule>());
-        List<Runnable> tasks = new ArrayList<Runnable>();
-        for (final List<DefaultRule> chunk : chunks){
-            tasks.add(new Runnable() {
-                @Override
-                public void run() {
-                    List<DefaultRule> covered = coveredExamples(stratification, chunk);
-                    coveredRules.addAll(covered);
-                }
-            });
+    /**
+     *
+     * @param stratification
+     * @param examples
+     * @param candidates indices of the examples which should be evaluated
+     * @return indices of the covered examples among the candidates
+     */
+    public static BitSet coveredExamples_parallelized(PossibilisticLogicTheory stratification, ExampleSet examples, BitSet candidates){
+        if (candidates.isEmpty()){
+            return new BitSet(examples.size());
         }
-        Sugar.runInParallel(tasks, Settings.processors);
-
-        List<DefaultRule> retVal = Collections.synchronizedList(new ArrayList<DefaultRule>());
-        for (DefaultRule coveredRule : coveredRules){
-            retVal.addAll(ml.get(coveredRule));
+        int[] indices = new int[candidates.cardinality()];
+        for (int i = candidates.nextSetBit(0), j = 0; i >= 0; i = candidates.nextSetBit(i+1), j++){
+            indices[j] = i;
+        }
+        //this is important
+        stratification = PossibilisticUtils.removeDrownedLevels(stratification);
+        if (indices.length < 2 || Globals.processors < 2){
+            BitSet retVal = new BitSet(examples.size());
+            for (int index : indices){
+                if (isCovered(stratification, examples, index)){
+                    retVal.set(index);
+                }
+            }
+            return retVal;
         }
-        Collections.sort(retVal, new Comparator<DefaultRule>(){
-            @Override
-            public int compare(DefaultRule o1, DefaultRule o2) {
-                return o1.toString().compareTo(o2.toString());
+        boolean[] covered = new boolean[indices.length];
+        Settings.forkJoinPool().invoke(new CoverageTask(stratification, examples, indices, covered, 0, indices.length));
+        BitSet retVal = new BitSet(examples.size());
+        for (int i = 0; i < indices.length; i++){
+            if (covered[i]){
+                retVal.set(indices[i]);
             }
-        });
-        long m2 = System.currentTimeMillis();
-//        if (m2-m1 > toughest){
-//            toughest = (int)(m2-m1);
-//            System.out.println("This was tough (it took "+toughest+"ms): \n"+stratification);
-//        }
-
+        }
         return retVal;
     }
 
-    private static List<DefaultRule> coveredExamples(PossibilisticLogicTheory stratification, List<DefaultRule> examples){
-//        unoptimized version
-//        List<DefaultRule> retVal = new ArrayList<DefaultRule>();
-//        for (DefaultRule rule : examples) {
-//            if (stratification.implies(rule.antecedent().literals(), rule.consequent())){
-//                retVal.addRule(rule);
-//            }
-//        }
-//        return retVal;
+    /**
+     * Evaluates the examples with indices indices[from],...,indices[to-1] and stores the results in covered[from],...,covered[to-1].
+     * The range is split for as long as there are idle workers which could steal the halves, so the chunks adapt
+     * to how hard the examples are.
+     */
+    private static class CoverageTask extends RecursiveAction {
 
-        //this is important
-        stratification = PossibilisticUtils.removeDrownedLevels(stratification);
+        private static final long serialVersionUID = 1L;
 
+        //a task stops splitting when its worker already has this many tasks queued for stealing
+        private final static int SURPLUS = 2;
 
+        private final PossibilisticLogicTheory stratification;
 
-        List<DefaultRule> retVal = new ArrayList<DefaultRule>();
+        private final ExampleSet examples;
 
-        for (DefaultRule rule : examples){
-            PossibilisticLogicTheory relevantSubtheory = relevantSubtheory(stratification, rule);
-            Set<Literal> literalsInTheRelevantSubtheory = new HashSet<Literal>();
-            for (Clause c : Sugar.flatten(relevantSubtheory.toLevelList())){
-                literalsInTheRelevantSubtheory.addAll(c.literals());
+        private final int[] indices;
+
+        //every task writes only its own range
+        private final boolean[] covered;
+
+        private final int from, to;
+
+        private CoverageTask(PossibilisticLogicTheory stratification, ExampleSet examples, int[] indices, boolean[] covered, int from, int to){
+            this.stratification = stratification;
+            this.examples = examples;
+            this.indices = indices;
+            this.covered = covered;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to-this.from > 1 && getSurplusQueuedTaskCount() <= SURPLUS){
+                int mid = (this.from+this.to) >>> 1;
+                CoverageTask left = new CoverageTask(this.stratification, this.examples, this.indices, this.covered, this.from, mid);
+                left.fork();
+                new CoverageTask(this.stratification, this.examples, this.indices, this.covered, mid, this.to).compute();
+                left.join();
+                return;
+            }
+            for (int i = this.from; i < this.to; i++){
+                this.covered[i] = isCovered(this.stratification, this.examples, this.indices[i]);
             }
+        }
+    }
 
-            Clause bodyConjunction = rule.antecedent();
-            LinkedHashSet<Literal> bodyLiterals = bodyConjunction.literals();
-            Clause consequentClause = rule.consequent();
-            boolean mayBeImplied = false;
-            for (Literal l : consequentClause.literals()){
-                // If the theory only contains !l or does not contain l at all then
-                // for any model with l = true, there is a model in which l = false
-                // and therefore l cannot be implied, analogically if we have a clause in the consequent
-                // (and not just one literal) then if the theory contains only !l_i (for each l_i in the consequent clause)
-                // or does not contain l at all then for any model we can have a model where all l_i = false - this holds for
-                // any non-drowned cut of the theory
-                if (literalsInTheRelevantSubtheory.contains(l) || bodyLiterals.contains(l)){
-                    mayBeImplied = true;
-                    break;
-                }
+    /**
+     *
+     * @param stratification theory without drowned levels
+     * @param examples
+     * @param index
+     * @return true if the theory implies the example with the given index, the result is taken from the coverage
+     * cache of the examples if the same relevant subtheory has already been evaluated for the example
+     */
+    private static boolean isCovered(PossibilisticLogicTheory stratification, ExampleSet examples, int index){
+        DefaultRule rule = examples.get(index);
+        CoverageCache cache = examples.coverageCache();
+        if (!Settings.useCoverageCache || cache == null){
+            return isCovered(stratification, relevantSubtheory(stratification, rule), examples, index);
+        }
+        //the key is built from the cached fingerprints of the components, the relevant subtheory is only constructed on a miss
+        CoverageCache.Key key = CoverageCache.key(stratification, rule, index);
+        Boolean retVal = cache.get(key);
+        if (retVal == null){
+            retVal = isCovered(stratification, relevantSubtheory(stratification, rule), examples, index);
+            cache.put(key, retVal);
+        }
+        return retVal;
+    }
+
+    private static boolean isCovered(PossibilisticLogicTheory stratification, PossibilisticLogicTheory relevantSubtheory, ExampleSet examples, int index){
+        DefaultRule rule = examples.get(index);
+        Set<Literal> literalsInTheRelevantSubtheory = new HashSet<Literal>();
+        for (Clause c : relevantSubtheory.getRules()){
+            literalsInTheRelevantSubtheory.addAll(c.literals());
+        }
+
+        Clause bodyConjunction = rule.antecedent();
+        LinkedHashSet<Literal> bodyLiterals = bodyConjunction.literals();
+        Clause consequentClause = rule.consequent();
+        boolean mayBeImplied = false;
+        for (Literal l : consequentClause.literals()){
+            // If the theory only contains !l or does not contain l at all then
+            // for any model with l = true, there is a model in which l = false
+            // and therefore l cannot be implied, analogically if we have a clause in the consequent
+            // (and not just one literal) then if the theory contains only !l_i (for each l_i in the consequent clause)
+            // or does not contain l at all then for any model we can have a model where all l_i = false - this holds for
+            // any non-drowned cut of the theory
+            if (literalsInTheRelevantSubtheory.contains(l) || bodyLiterals.contains(l)){
+                mayBeImplied = true;
+                break;
             }
+        }
 
-            if (mayBeImplied){
-                Set<Clause> clausesInSubtheory;
-                if (relevantSubtheory.weights().size() == 1 && (clausesInSubtheory = relevantSubtheory.toLevelList().get(0)).size() == 1){
-                    Clause clauseFromSubtheory = Sugar.chooseOne(clausesInSubtheory);
-                    if (Sugar.isSubsetOf(clauseFromSubtheory.literals(), rule.toMaterialImplication().literals())){
-                        retVal.add(rule);
-                    }
-                } else {
-                    if (Sugar.intersection(Sugar.union(rule.antecedent().literals(), Utils.flipSigns(rule.antecedent()).literals()), literalsInTheRelevantSubtheory).isEmpty()){
-                        Collection<Clause> clausesFromTheory = Sugar.flatten(relevantSubtheory.toLevelList());
-                        //subsumption checking
-                        boolean subsumed = false;
-                        for (Clause fromTheory : clausesFromTheory){
-                            if (Sugar.isSubsetOf(fromTheory.literals(), rule.consequent().literals())){
-                                subsumed = true;
-                                break;
-                            }
-                        }
-                        if (subsumed){
-                            retVal.add(rule);
-                        } else {
-                            GroundTheorySolver gts = new GroundTheorySolver(Sugar.union(clausesFromTheory, wrapLiteralsToClauses(rule.antecedent().literals()), wrapLiteralsToClauses(Utils.flipSigns(rule.consequent()).literals())));
-                            if (gts.solve() == null){
-                                retVal.add(rule);
-                            }
-                        }
-                    } else {
-                        //System.out.println(rule+" --relevant-->\n "+relevantSubtheory+"\n<<<");
-                        if (relevantSubtheory.implies(bodyConjunction.literals(), consequentClause)) {
-                            retVal.add(rule);
-                        }
-                    }
-                }
+        if (!mayBeImplied){
+            return false;
+        }
+        List<Clause> clausesInSubtheory;
+        if (relevantSubtheory.weights().size() == 1 && (clausesInSubtheory = relevantSubtheory.getRules()).size() == 1){
+            Clause clauseFromSubtheory = Sugar.chooseOne(clausesInSubtheory);
+            return Sugar.isSubsetOf(clauseFromSubtheory.literals(), rule.toMaterialImplication().literals());
+        } else if (Sugar.intersection(Sugar.union(rule.antecedent().literals(), Utils.flipSigns(rule.antecedent()).literals()), literalsInTheRelevantSubtheory).isEmpty()){
+            //subsumption checking, a rule subsuming the consequent shares variables with the example, so it is in the relevant subtheory
+            if (stratification.subsumptionIndex().containsSubsetOf(rule.consequent())){
+                return true;
             }
+            Collection<Clause> clausesFromTheory = relevantSubtheory.getRules();
+            GroundTheorySolver gts = new GroundTheorySolver(Sugar.union(clausesFromTheory, wrapLiteralsToClauses(rule.antecedent().literals()), wrapLiteralsToClauses(Utils.flipSigns(rule.consequent()).literals())));
+            return gts.solve() == null;
+        } else {
+            //System.out.println(rule+" --relevant-->\n "+relevantSubtheory+"\n<<<");
+            if (Settings.useUnsatCores && examples.unsatCoreCache() != null){
+                return examples.unsatCoreCache().implies(relevantSubtheory, index, rule);
+            }
+            return relevantSubtheory.implies(bodyConjunction.literals(), consequentClause);
         }
-        return retVal;
     }
 
     private static Set<Clause> wrapLiteralsToClauses(Collection<Literal> literals){
@@ -157,91 +211,82 @@ public class LearningUtils {
         return retVal;
     }
 
-    private static List<DefaultRule> possiblyAffectedExamples(Clause newRule, PossibilisticLogicTheory previous, List<DefaultRule> examples){
-        PossibilisticLogicTheory copy = PossibilisticLogicTheory.fromStratification(previous.toLevelList());
-        copy.addRule(newRule, copy.maxNecessity());
-        if (PossibilisticUtils.removeDrownedLevels(copy).weights().size() < previous.weights().size()){
-            return examples;
-        }
-        List<DefaultRule> retVal = new ArrayList<DefaultRule>();
-        for (DefaultRule example : examples){
-            Set<Literal> examplesLiterals = Sugar.setFromCollections(example.consequent().literals(), example.antecedent().literals());
-            if (Sugar.intersection(newRule.literals(), examplesLiterals).size() > 0){
-                retVal.add(example);
-            } else {
-                Set<Literal> component = component(new Clause(examplesLiterals), previous);
-                if (Sugar.intersection(newRule.literals(), component).size() > 0){
-                    retVal.add(example);
-                }
-            }
-        }
-        return retVal;
+    /**
+     *
+     * @param newRule
+     * @param previous
+     * @param examples
+     * @return indices of the examples whose coverage may differ between the theory previous and the theory obtained by adding
+     * newRule to it (at any level), i.e. all examples if the new rule makes some levels drowned and otherwise
+     * the examples sharing a connected component with the new rule
+     */
+    static BitSet possiblyAffectedExamples(Clause newRule, PossibilisticLogicTheory previous, ExampleSet examples){
+        return possiblyAffectedExamples(newRule, previous, examples, drownsLevels(newRule, previous));
     }
 
-    private static PossibilisticLogicTheory relevantSubtheory(PossibilisticLogicTheory plt, DefaultRule example){
-        PossibilisticLogicTheory retVal = new PossibilisticLogicTheory();
-        Set<Literal> component = component(new Clause(Sugar.iterable(example.antecedent().literals(), example.consequent().literals())), plt);
-        for (double level : plt.weights()){
-            for (Clause c : plt.getAlphaLevel(level)) {
-                Literal l = Sugar.chooseOne(c.literals());
-//                System.out.println(plt);
-//                System.out.println(component);
-//                System.out.println(l+" "+plt.getAlphaLevel(level).size());
-                if (component.contains(l) || component.contains(l.negation())) {
-                    retVal.addRule(c, level);
-                }
-            }
+    /**
+     * Same as possiblyAffectedExamples(newRule, previous, examples) with the result of drownsLevels(newRule, previous) given.
+     */
+    static BitSet possiblyAffectedExamples(Clause newRule, PossibilisticLogicTheory previous, ExampleSet examples, boolean drownsLevels){
+        if (drownsLevels){
+            return examples.all();
         }
-        return retVal;
+        return examples.touching(previous.connectedVariables(newRule.literals()));
     }
 
-    private static Set<Literal> component(Clause seed, PossibilisticLogicTheory plt){
-        MultiMap<Literal,Clause> lookup = new MultiMap<Literal,Clause>();
-        for (Clause c : Sugar.flatten(plt.toLevelList())){
-            for (Literal l : c.literals()){
-                lookup.put(l, c);
-                lookup.put(l.negation(), c);
-            }
-        }
-        Set<Literal> retVal = new HashSet<Literal>(seed.literals());
-        Stack<Literal> stack = new Stack<Literal>();
-        stack.addAll(seed.literals());
-        while (!stack.isEmpty()){
-            Literal l = stack.pop();
-            retVal.add(l);
-            for (Clause containedIn : lookup.get(l)){
-                for (Literal ci : containedIn.literals()){
-                    if (!retVal.contains(ci)){
-                        retVal.add(ci);
-                        stack.push(ci);
-                    }
-                }
-            }
-        }
-        return retVal;
+    /**
+     *
+     * @param newRule
+     * @param theory
+     * @return true if the theory has drowned levels or gets some when newRule is added to it (at any level)
+     */
+    static boolean drownsLevels(Clause newRule, PossibilisticLogicTheory theory){
+        PersistentStratification levels = theory.toPersistentStratification();
+        //the rule is added to the highest level, the other levels are shared with the theory
+        levels = levels.isEmpty() ? levels.insertLevel(0, Sugar.<Clause>set(newRule)) : levels.addToLevel(levels.size()-1, newRule);
+        return hasDrownedLevels(levels.toTheory());
+    }
+
+    static boolean hasDrownedLevels(PossibilisticLogicTheory theory){
+        return PossibilisticUtils.removeDrownedLevels(theory).weights().size() < theory.weights().size();
+    }
+
+    private static PossibilisticLogicTheory relevantSubtheory(PossibilisticLogicTheory plt, DefaultRule example){
+        return plt.relevantSubtheory(Sugar.<Literal>iterable(example.antecedent().literals(), example.consequent().literals()));
     }
 
     public static List<DefaultRule> coverableAndNotCoveredExamples_parallelized(final PossibilisticLogicTheory stratification, List<DefaultRule> examples){
-        List<List<DefaultRule>> chunks = Sugar.splitList(examples, Settings.processors);
-        final List<DefaultRule> retVal = Collections.synchronizedList(new ArrayList<DefaultRule>());
-        List<Runnable> tasks = new ArrayList<Runnable>();
-        for (final List<DefaultRule> chunk : chunks){
-            tasks.add(new Runnable() {
+        List<Callable<List<DefaultRule>>> tasks = new ArrayList<Callable<List<DefaultRule>>>();
+        for (final List<DefaultRule> chunk : Sugar.splitList(examples, Globals.processors)){
+            tasks.add(new Callable<List<DefaultRule>>() {
                 @Override
-                public void run() {
-                    List<DefaultRule> covered = coverableAndNotCoveredExamples(stratification, chunk);
-                    retVal.addAll(covered);
+                public List<DefaultRule> call() throws Exception {
+                    return coverableAndNotCoveredExamples(stratification, chunk);
                 }
             });
         }
-        Sugar.runInParallel(tasks, Settings.processors);
+        List<DefaultRule> retVal = new ArrayList<DefaultRule>();
+        for (List<DefaultRule> covered : Globals.invokeAll(tasks)){
+            retVal.addAll(covered);
+        }
         return retVal;
     }
 
+    /**
+     *
+     * @param stratification
+     * @param examples
+     * @param candidates indices of the examples which should be evaluated
+     * @return indices of the examples among the candidates which are not covered but could be covered by adding rules to the theory
+     */
+    public static BitSet coverableAndNotCoveredExamples(PossibilisticLogicTheory stratification, ExampleSet examples, BitSet candidates){
+        return examples.toBitSet(coverableAndNotCoveredExamples(stratification, examples.distinct(candidates)));
+    }
+
     public static List<DefaultRule> coverableAndNotCoveredExamples(PossibilisticLogicTheory stratification, List<DefaultRule> examples){
         stratification = PossibilisticUtils.removeDrownedLevels(stratification);
         Set<Literal> literals = new HashSet<Literal>();
-        for (Clause c : Sugar.flatten(stratification.toLevelList())){
+        for (Clause c : stratification.getRules()){
             literals.addAll(c.literals());
         }
         if (literals.isEmpty()){
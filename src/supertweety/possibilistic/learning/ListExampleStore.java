@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic.learning;
+
+import ida.ilp.logic.Literal;
+import ida.utils.Sugar;
+import supertweety.defaults.DefaultRule;
+
+import java.util.*;
+
+/**
+ * Example store keeping the examples as DefaultRule objects, equal examples share one index.
+ */
+public class ListExampleStore implements ExampleStore {
+
+    private final List<DefaultRule> examples = new ArrayList<DefaultRule>();
+
+    private final Map<DefaultRule,Integer> indices = new HashMap<DefaultRule,Integer>();
+
+    private final int[] multiplicities;
+
+    private final int totalCount;
+
+    public ListExampleStore(Collection<DefaultRule> examples){
+        List<Integer> counts = new ArrayList<Integer>();
+        for (DefaultRule example : examples){
+            Integer index = this.indices.get(example);
+            if (index == null){
+                this.indices.put(example, index = this.examples.size());
+                this.examples.add(example);
+                counts.add(0);
+            }
+            counts.set(index, counts.get(index)+1);
+        }
+        this.multiplicities = new int[counts.size()];
+        for (int i = 0; i < this.multiplicities.length; i++){
+            this.multiplicities[i] = counts.get(i);
+        }
+        this.totalCount = examples.size();
+    }
+
+    public int size(){
+        return this.examples.size();
+    }
+
+    public int totalCount(){
+        return this.totalCount;
+    }
+
+    public int multiplicity(int index){
+        return this.multiplicities[index];
+    }
+
+    public DefaultRule get(int index){
+        return this.examples.get(index);
+    }
+
+    public int indexOf(DefaultRule example){
+        Integer index = this.indices.get(example);
+        return index == null ? -1 : index;
+    }
+
+    public BitSet touching(Set<Literal> variables){
+        BitSet retVal = new BitSet(this.examples.size());
+        for (int i = 0; i < this.examples.size(); i++){
+            DefaultRule example = this.examples.get(i);
+            for (Literal l : Sugar.<Literal>iterable(example.antecedent().literals(), example.consequent().literals())){
+                if (variables.contains(l) || variables.contains(l.negation())){
+                    retVal.set(i);
+                    break;
+                }
+            }
+        }
+        return retVal;
+    }
+}
@@ -14,17 +14,18 @@ import ida.ilp.logic.Clause;
 import ida.utils.CommandLine;
 import ida.utils.Sugar;
 import ida.utils.tuples.Quadruple;
-import supertweety.defaults.DefaultRule;
 import supertweety.logic.GroundTheorySolver;
+import supertweety.logic.utils.LiteralDictionary;
 import supertweety.possibilistic.PossibilisticLogicTheory;
 import supertweety.possibilistic.learning.misc.ArffFromDefaults;
 
+import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * Created by kuzelkao_cardiff on 03/11/15.
@@ -60,6 +61,16 @@ public class Main {
                 negTestReader.close();
                 trainWriter.close();
                 testWriter.close();
+            } else if (action.equals("cache")){
+                //pre-builds the binary caches of all the given datasets
+                for (String param : new String[]{"-pos", "-neg", "-testpos", "-testneg"}){
+                    if (params.containsKey(param)){
+                        DatasetCache.buildExamplesCache(new File(params.get(param)));
+                    }
+                }
+                if (params.containsKey("-hardRules")){
+                    DatasetCache.buildHardRulesCache(new File(params.get("-hardRules")));
+                }
             } else if (action.equals("multiclassArff")){
                 String pos = params.get("-pos");
                 String posTest = params.get("-testpos");
@@ -80,22 +91,32 @@ public class Main {
             String neg = params.get("-neg");
             String posTest = params.get("-testpos");
             String negTest = params.get("-testneg");
-            List<DefaultRule> defaults = DatasetReader.readDefaultRuleDataset(new FileReader(pos));
-            List<DefaultRule> nondefaults = DatasetReader.readDefaultRuleDataset(new FileReader(neg));
+            //binary caches of the parsed inputs are used unless -cache false is given
+            boolean useCache = !params.containsKey("-cache") || Boolean.parseBoolean(params.get("-cache"));
+            //-offheap true keeps the examples in the memory-mapped caches instead of the heap
+            boolean offHeap = params.containsKey("-offheap") && Boolean.parseBoolean(params.get("-offheap"));
+            //without the caches, all the datasets share one dictionary of literals
+            LiteralDictionary dictionary = new LiteralDictionary();
+            ExampleSet defaults = new ExampleSet(readExamples(pos, useCache, offHeap, dictionary));
+            ExampleSet nondefaults = new ExampleSet(readExamples(neg, useCache, offHeap, dictionary));
             List<Clause> hardRules = null;
             if (params.containsKey("-hardRules")){
-                hardRules = new ArrayList<Clause>();
-                for (String line : Sugar.readLines(new FileReader(params.get("-hardRules")))){
-                    line = line.trim();
-                    if (line.length() > 0){
-                        hardRules.add(Clause.parse(line));
+                if (useCache){
+                    hardRules = DatasetCache.loadHardRules(new File(params.get("-hardRules")));
+                } else {
+                    hardRules = new ArrayList<Clause>();
+                    for (String line : Sugar.readLines(new FileReader(params.get("-hardRules")))){
+                        line = line.trim();
+                        if (line.length() > 0){
+                            hardRules.add(Clause.parse(line));
+                        }
                     }
                 }
             }
 
             int iterations = Integer.MAX_VALUE;
 
-            HeuristicPossibilisticLearner pl = new HeuristicPossibilisticLearner(defaults, nondefaults, hardRules);
+            HeuristicPossibilisticLearner pl = new HeuristicPossibilisticLearner(defaults.store(), nondefaults.store(), hardRules);
 
             if (params.containsKey("-candidates")){
                 pl.setCandidatesSampleSize(Integer.parseInt(params.get("-candidates")));
@@ -136,16 +157,14 @@ public class Main {
             System.out.println(learnedTheory);
 
             if (posTest != null && negTest != null) {
-                List<DefaultRule> testDefaults = DatasetReader.readDefaultRuleDataset(new FileReader(posTest));
-                List<DefaultRule> testNondefaults = DatasetReader.readDefaultRuleDataset(new FileReader(negTest));
+                ExampleSet testDefaults = new ExampleSet(readExamples(posTest, useCache, offHeap, dictionary));
+                ExampleSet testNondefaults = new ExampleSet(readExamples(negTest, useCache, offHeap, dictionary));
 
                 if (learnedTheory != null) {
-                    List<DefaultRule> coveredPositiveTest = LearningUtils.coveredExamples_parallelized(learnedTheory, testDefaults);
-                    List<DefaultRule> coveredNegativeTest = LearningUtils.coveredExamples_parallelized(learnedTheory, testNondefaults);
-                    double coveredPositive = coveredPositiveTest.size();
-                    double coveredNegative = coveredNegativeTest.size();
-                    double accuracy = (coveredPositive + testNondefaults.size() - coveredNegative) / (testDefaults.size() + testNondefaults.size());
-                    double majorityAccuracy = Math.max(testDefaults.size(), testNondefaults.size()) / (double) (testDefaults.size() + testNondefaults.size());
+                    double coveredPositive = testDefaults.count(LearningUtils.coveredExamples_parallelized(learnedTheory, testDefaults));
+                    double coveredNegative = testNondefaults.count(LearningUtils.coveredExamples_parallelized(learnedTheory, testNondefaults));
+                    double accuracy = (coveredPositive + testNondefaults.totalCount() - coveredNegative) / (testDefaults.totalCount() + testNondefaults.totalCount());
+                    double majorityAccuracy = Math.max(testDefaults.totalCount(), testNondefaults.totalCount()) / (double) (testDefaults.totalCount() + testNondefaults.totalCount());
                     System.out.println("Covered positive: " + coveredPositive);
                     System.out.println("Covered negative: " + coveredNegative);
                     System.out.println("Accuracy: " + accuracy);
@@ -156,15 +175,15 @@ public class Main {
                     List<Double> trainSetAccuracies = new ArrayList<Double>();
                     List<Quadruple<Double,Double,Double,Double>> stats = new ArrayList<Quadruple<Double,Double,Double,Double>>();
                     for (PossibilisticLogicTheory theoryN : pl.incrementalLearnerHistory()){
-                        List<DefaultRule> coveredPosTest = LearningUtils.coveredExamples_parallelized(theoryN, testDefaults);
-                        List<DefaultRule> coveredNegTest = LearningUtils.coveredExamples_parallelized(theoryN, testNondefaults);
-                        List<DefaultRule> coveredPosTrain = LearningUtils.coveredExamples_parallelized(theoryN, defaults);
-                        List<DefaultRule> coveredNegTrain = LearningUtils.coveredExamples_parallelized(theoryN, nondefaults);
-                        double acc = (coveredPosTest.size() + testNondefaults.size() - coveredNegTest.size()) / (double)(testDefaults.size() + testNondefaults.size());
-                        double trainAcc = (coveredPosTrain.size() + nondefaults.size() - coveredNegTrain.size()) / (double)(defaults.size() + nondefaults.size());
+                        int coveredPosTest = testDefaults.count(LearningUtils.coveredExamples_parallelized(theoryN, testDefaults));
+                        int coveredNegTest = testNondefaults.count(LearningUtils.coveredExamples_parallelized(theoryN, testNondefaults));
+                        int coveredPosTrain = defaults.count(LearningUtils.coveredExamples_parallelized(theoryN, defaults));
+                        int coveredNegTrain = nondefaults.count(LearningUtils.coveredExamples_parallelized(theoryN, nondefaults));
+                        double acc = (coveredPosTest + testNondefaults.totalCount() - coveredNegTest) / (double)(testDefaults.totalCount() + testNondefaults.totalCount());
+                        double trainAcc = (coveredPosTrain + nondefaults.totalCount() - coveredNegTrain) / (double)(defaults.totalCount() + nondefaults.totalCount());
                         testSetAccuracies.add(acc);
                         trainSetAccuracies.add(trainAcc);
-                        stats.add(new Quadruple<Double,Double,Double,Double>((double)coveredPosTrain.size(), (double)coveredNegTrain.size(), (double)coveredPosTest.size(), (double)coveredNegTest.size()));
+                        stats.add(new Quadruple<Double,Double,Double,Double>((double)coveredPosTrain, (double)coveredNegTrain, (double)coveredPosTest, (double)coveredNegTest));
                     }
                     System.out.println("lc = "+testSetAccuracies);
                     System.out.println("train_lc = "+trainSetAccuracies);
@@ -172,19 +191,18 @@ public class Main {
                 } else if (mode == SAYU){
 
                 } else if (mode == MEMOIZATION_OF_DEFAULTS){
-                    List<DefaultRule> misclassified = new ArrayList<DefaultRule>();
-                    Set<DefaultRule> positiveSet = Sugar.setFromCollections(defaults);
-                    for (DefaultRule d : testDefaults){
-                        if (!positiveSet.contains(d)){
-                            misclassified.add(d);
+                    int misclassified = 0;
+                    for (int i = 0; i < testDefaults.size(); i++){
+                        if (defaults.indexOf(testDefaults.get(i)) == -1){
+                            misclassified += testDefaults.multiplicity(i);
                         }
                     }
-                    for (DefaultRule d : testNondefaults){
-                        if (positiveSet.contains(d)){
-                            misclassified.add(d);
+                    for (int i = 0; i < testNondefaults.size(); i++){
+                        if (defaults.indexOf(testNondefaults.get(i)) != -1){
+                            misclassified += testNondefaults.multiplicity(i);
                         }
                     }
-                    double testAcc = 1.0-misclassified.size()/(double)(testDefaults.size()+testNondefaults.size());
+                    double testAcc = 1.0-misclassified/(double)(testDefaults.totalCount()+testNondefaults.totalCount());
                     System.out.println("Memoization accuracy: "+testAcc);
                 }
             }
@@ -193,4 +211,14 @@ public class Main {
         System.out.println("Finished in "+(time2-time1)+"ms");
     }
 
+    private static ExampleStore readExamples(String path, boolean useCache, boolean offHeap, LiteralDictionary dictionary) throws IOException {
+        if (offHeap){
+            return DatasetCache.openExamples(new File(path));
+        }
+        if (useCache){
+            return DatasetCache.loadExamples(new File(path));
+        }
+        return DatasetReader.readDefaultRuleDataset(new File(path), new CompactExampleStore(dictionary));
+    }
+
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic.learning;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Literal;
+import supertweety.defaults.DefaultRule;
+import supertweety.logic.utils.LiteralDictionary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Example store backed by a memory-mapped file in the format of CompactExampleStore.write, so that the examples
+ * are kept off the heap. Only the dictionary (with its decoded atoms and their negations) is read into memory.
+ * The examples are stored in the order of their indices, so workers evaluating ranges of indices
+ * (as in LearningUtils.coveredExamples_parallelized) read the file sequentially.
+ *
+ * The store only bounds the memory which is retained: every call of get(int) still allocates a new DefaultRule
+ * with its two Clauses (the Literals are shared), which are short-lived garbage, so heavy coverage computations
+ * keep allocating in proportion to the number of checks. The decoding does not lock the dictionary.
+ */
+public class MappedExampleStore implements ExampleStore {
+
+    //ints per mapped segment, a single mapping cannot exceed 2GB
+    private final static int SEGMENT_BITS = 28;
+
+    private final LiteralDictionary dictionary;
+
+    private final LiteralDictionary.Decoder decoder;
+
+    private final int size;
+
+    private final int totalCount;
+
+    private final MappedInts offsets, multiplicities, table, arena;
+
+    private MappedExampleStore(FileChannel channel, long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        while (header.hasRemaining() && channel.read(header, position+header.position()) != -1){}
+        header.flip();
+        this.size = header.getInt();
+        this.totalCount = header.getInt();
+        int arenaLength = header.getInt();
+        int tableLength = header.getInt();
+        position += 16;
+        this.offsets = new MappedInts(channel, position, this.size+1);
+        position += 4L*(this.size+1);
+        this.multiplicities = new MappedInts(channel, position, this.size);
+        position += 4L*this.size;
+        this.table = new MappedInts(channel, position, tableLength);
+        position += 4L*tableLength;
+        this.arena = new MappedInts(channel, position, arenaLength);
+        position += 4L*arenaLength;
+        this.dictionary = LiteralDictionary.read(channel.map(FileChannel.MapMode.READ_ONLY, position, channel.size()-position));
+        //the store is read-only, so the decoder covers all its literals
+        this.decoder = this.dictionary.decoder();
+    }
+
+    /**
+     *
+     * @param channel
+     * @param position position of a store written by CompactExampleStore.write in the channel
+     * @return
+     * @throws IOException
+     */
+    public static MappedExampleStore open(FileChannel channel, long position) throws IOException {
+        return new MappedExampleStore(channel, position);
+    }
+
+    public LiteralDictionary dictionary(){
+        return this.dictionary;
+    }
+
+    public int size(){
+        return this.size;
+    }
+
+    public int totalCount(){
+        return this.totalCount;
+    }
+
+    public int multiplicity(int index){
+        return this.multiplicities.get(index);
+    }
+
+    /**
+     *
+     * @param index
+     * @return encoded literals of the antecedent of the example
+     */
+    public int[] antecedent(int index){
+        long offset = this.offsets.get(index);
+        return this.arena.get(offset+1, this.arena.get(offset));
+    }
+
+    /**
+     *
+     * @param index
+     * @return encoded literals of the consequent of the example
+     */
+    public int[] consequent(int index){
+        long offset = this.offsets.get(index);
+        long from = offset+1+this.arena.get(offset);
+        return this.arena.get(from, (int)(this.offsets.get(index+1)-from));
+    }
+
+    public DefaultRule get(int index){
+        long offset = this.offsets.get(index);
+        long consequentOffset = offset+1+this.arena.get(offset);
+        return new DefaultRule(this.decode(offset+1, consequentOffset), this.decode(consequentOffset, this.offsets.get(index+1)));
+    }
+
+    public int indexOf(DefaultRule example){
+        int[] antecedent = this.encode(example.antecedent());
+        int[] consequent = this.encode(example.consequent());
+        if (antecedent == null || consequent == null || this.table.length == 0){
+            return -1;
+        }
+        antecedent = CompactExampleStore.sorted(antecedent);
+        consequent = CompactExampleStore.sorted(consequent);
+        int mask = (int)this.table.length-1;
+        for (int slot = CompactExampleStore.hash(antecedent, consequent) & mask; this.table.get(slot) != 0; slot = (slot+1) & mask){
+            int index = this.table.get(slot)-1;
+            if (Arrays.equals(this.antecedent(index), antecedent) && Arrays.equals(this.consequent(index), consequent)){
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    public BitSet touching(Set<Literal> variables){
+        BitSet encodedVariables = new BitSet(this.dictionary.size()+1);
+        for (Literal l : variables){
+            int variable = this.dictionary.variable(l);
+            if (variable != 0){
+                encodedVariables.set(variable);
+            }
+        }
+        BitSet retVal = new BitSet(this.size);
+        long offset = this.offsets.get(0);
+        for (int i = 0; i < this.size; i++){
+            long end = this.offsets.get(i+1);
+            for (long j = offset+1; j < end; j++){
+                if (encodedVariables.get(Math.abs(this.arena.get(j)))){
+                    retVal.set(i);
+                    break;
+                }
+            }
+            offset = end;
+        }
+        return retVal;
+    }
+
+    //decodes arena[from] ... arena[to-1]
+    private Clause decode(long from, long to){
+        List<Literal> retVal = new ArrayList<Literal>((int)(to-from));
+        for (long i = from; i < to; i++){
+            retVal.add(this.decoder.decode(this.arena.get(i)));
+        }
+        return new Clause(retVal);
+    }
+
+    //null if some literal is not in the dictionary
+    private int[] encode(Clause clause){
+        int[] retVal = new int[clause.countLiterals()];
+        int i = 0;
+        for (Literal l : clause.literals()){
+            if ((retVal[i++] = this.dictionary.encode(l)) == 0){
+                return null;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Ints of a region of a file mapped in segments. Reads do not change the state of the buffers, so they can be
+     * done concurrently.
+     */
+    private static class MappedInts {
+
+        private final static long MASK = (1L << SEGMENT_BITS)-1;
+
+        private final IntBuffer[] segments;
+
+        private final long length;
+
+        private MappedInts(FileChannel channel, long position, long length) throws IOException {
+            this.length = length;
+            this.segments = new IntBuffer[(int)((length+MASK) >>> SEGMENT_BITS)];
+            for (int i = 0; i < this.segments.length; i++){
+                long from = (long)i << SEGMENT_BITS;
+                long segmentLength = Math.min(MASK+1, length-from);
+                this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position+4*from, 4*segmentLength).asIntBuffer();
+            }
+        }
+
+        private int get(long index){
+            return this.segments[(int)(index >>> SEGMENT_BITS)].get((int)(index & MASK));
+        }
+
+        private int[] get(long from, int length){
+            int[] retVal = new int[length];
+            for (int i = 0; i < length; i++){
+                retVal[i] = this.get(from+i);
+            }
+            return retVal;
+        }
+    }
+}
@@ -10,11 +10,42 @@
 
 package supertweety.possibilistic.learning;
 
+import supertweety.possibilistic.Globals;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Created by kuzelkao_cardiff on 20/11/15.
  */
 public class Settings {
 
-    public static int processors = Runtime.getRuntime().availableProcessors();
+    public static boolean useCoverageCache = true;
+
+    //maximum number of entries of the coverage cache of one example set
+    public static int coverageCacheSize = 1000000;
+
+    //covered examples are re-checked against the unsat cores of their previous refutations before calling the solver
+    public static boolean useUnsatCores = true;
+
+    /**
+     *
+     * @return the work-stealing pool shared by all the parallelized algorithms (see Globals.forkJoinPool()),
+     * its size is given by Globals.processors, which is the only setting of the number of threads
+     */
+    public static ForkJoinPool forkJoinPool(){
+        return Globals.forkJoinPool();
+    }
+
+    /**
+     * Runs the tasks in the shared pool and waits for all of them (see Globals.invokeAll).
+     * @param tasks
+     * @param <T>
+     * @return results of the tasks in the order of the tasks
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks){
+        return Globals.invokeAll(tasks);
+    }
 
 }
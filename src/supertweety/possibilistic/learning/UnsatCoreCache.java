@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic.learning;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Constant;
+import ida.ilp.logic.Literal;
+import ida.utils.Sugar;
+import supertweety.defaults.DefaultRule;
+import supertweety.logic.GroundTheorySolver;
+import supertweety.misc.Utils;
+import supertweety.possibilistic.PossibilisticLogicTheory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Entailment checks for the examples of an ExampleSet which remember, for every example found to be covered,
+ * the rules used in the refutation (an unsat core given by the solver) and a model of the cut of the theory
+ * which is consistent with the antecedent of the example.
+ *
+ * For a later theory, let j be the lowest level containing a rule of the core. If the levels j and above contain the
+ * whole core and the model satisfies them, the inconsistency level for the antecedent is at most j, so the cut used
+ * for the entailment contains the core and the example is covered without calling the solver.
+ */
+public class UnsatCoreCache {
+
+    private final Map<Integer,Core> cores = new ConcurrentHashMap<Integer,Core>();
+
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+    /**
+     *
+     * @param relevantSubtheory the relevant subtheory for the example (without drowned levels)
+     * @param index index of the example
+     * @param example
+     * @return true if the relevant subtheory implies the example, i.e. relevantSubtheory.implies(antecedent, consequent)
+     */
+    public boolean implies(PossibilisticLogicTheory relevantSubtheory, int index, DefaultRule example){
+        if (isTautology(example.consequent())){
+            return true;
+        }
+        List<Set<Clause>> levels = relevantSubtheory.toLevelList();
+        Set<Clause> hardRules = relevantSubtheory.hardRules();
+        Core core = this.cores.get(index);
+        if (core != null && core.proves(levels, hardRules)){
+            this.hits.incrementAndGet();
+            return true;
+        }
+        this.misses.incrementAndGet();
+        Core newCore = refute(levels, hardRules, example);
+        if (newCore == null){
+            //the old core may become usable again for later theories
+            return false;
+        }
+        this.cores.put(index, newCore);
+        return true;
+    }
+
+    /**
+     *
+     * @param levels levels of the theory from the lowest one
+     * @param hardRules
+     * @param example
+     * @return the core of the refutation of the example by the lowest cut consistent with its antecedent or null
+     * if there is no such cut or if the cut does not imply the example
+     */
+    private static Core refute(List<Set<Clause>> levels, Set<Clause> hardRules, DefaultRule example){
+        if (levels.isEmpty()){
+            return null;
+        }
+        //every rule gets its own selector so that the explanation of the refutation identifies the rules
+        Map<Literal,Clause> rulesBySelectors = new HashMap<Literal,Clause>();
+        List<Clause> clauses = new ArrayList<Clause>();
+        List<List<Literal>> selectorsOfLevels = new ArrayList<List<Literal>>();
+        List<Literal> hardSelectors = new ArrayList<Literal>();
+        for (Set<Clause> level : levels){
+            selectorsOfLevels.add(addRules(level, rulesBySelectors, clauses));
+        }
+        hardSelectors.addAll(addRules(hardRules, rulesBySelectors, clauses));
+        GroundTheorySolver solver = new GroundTheorySolver(clauses);
+        Collection<Literal> antecedent = example.antecedent().literals();
+
+        int min = 0;
+        int max = levels.size()-1;
+        int lowest = -1;
+        Set<Literal> model = null;
+        while (max >= min){
+            int mid = (min+max)/2;
+            Set<Literal> solution = solver.solve(cutAssumptions(selectorsOfLevels, hardSelectors, mid, antecedent));
+            if (solution != null){
+                lowest = mid;
+                model = solution;
+                max = mid-1;
+            } else {
+                min = mid+1;
+            }
+        }
+        if (lowest == -1){
+            return null;
+        }
+        List<Literal> assumptions = cutAssumptions(selectorsOfLevels, hardSelectors, lowest, Sugar.union(antecedent, Utils.flipSigns(example.consequent()).literals()));
+        if (solver.solve(assumptions) != null){
+            return null;
+        }
+        Set<Clause> coreRules = new HashSet<Clause>();
+        Set<Literal> explanation = solver.unsatExplanation();
+        if (explanation == null){
+            //without an explanation, the whole cut is the core
+            explanation = new HashSet<Literal>(assumptions);
+        }
+        for (Literal l : explanation){
+            Clause rule = rulesBySelectors.get(l);
+            if (rule != null){
+                coreRules.add(rule);
+            }
+        }
+        Set<Literal> positiveModel = new HashSet<Literal>();
+        for (Literal l : model){
+            if (!rulesBySelectors.containsKey(l)){
+                positiveModel.add(l);
+            }
+        }
+        return new Core(coreRules, positiveModel);
+    }
+
+    private static List<Literal> addRules(Collection<Clause> rules, Map<Literal,Clause> rulesBySelectors, List<Clause> clauses){
+        List<Literal> retVal = new ArrayList<Literal>();
+        for (Clause rule : rules){
+            Literal selector = new Literal("@rule", Constant.construct(String.valueOf(rulesBySelectors.size())));
+            rulesBySelectors.put(selector, rule);
+            clauses.add(new Clause(Sugar.union(rule.literals(), selector.negation())));
+            retVal.add(selector);
+        }
+        return retVal;
+    }
+
+    private static List<Literal> cutAssumptions(List<List<Literal>> selectorsOfLevels, List<Literal> hardSelectors, int lowestLevel, Collection<Literal> literals){
+        List<Literal> retVal = new ArrayList<Literal>(literals);
+        for (int i = lowestLevel; i < selectorsOfLevels.size(); i++){
+            retVal.addAll(selectorsOfLevels.get(i));
+        }
+        retVal.addAll(hardSelectors);
+        return retVal;
+    }
+
+    private static boolean isTautology(Clause clause){
+        for (Literal l : clause.literals()){
+            if (clause.containsLiteral(l.negation())){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long hits(){
+        return this.hits.get();
+    }
+
+    public long misses(){
+        return this.misses.get();
+    }
+
+    public double hitRate(){
+        long hits = this.hits.get();
+        long all = hits+this.misses.get();
+        return all == 0 ? 0 : hits/(double)all;
+    }
+
+    public void clear(){
+        this.cores.clear();
+    }
+
+    @Override
+    public String toString(){
+        return "UnsatCoreCache[size: "+this.cores.size()+", hits: "+this.hits()+", misses: "+this.misses()+", hit rate: "+this.hitRate()+"]";
+    }
+
+    private static class Core {
+
+        private final Set<Clause> rules;
+
+        //positive literals of a model of the cut consistent with the antecedent (including the antecedent),
+        //the other variables are false
+        private final Set<Literal> model;
+
+        private Core(Set<Clause> rules, Set<Literal> model){
+            this.rules = rules;
+            this.model = model;
+        }
+
+        private boolean proves(List<Set<Clause>> levels, Set<Clause> hardRules){
+            if (levels.isEmpty()){
+                return false;
+            }
+            Set<Clause> remaining = new HashSet<Clause>(this.rules);
+            remaining.removeAll(hardRules);
+            int lowest = levels.size()-1;
+            for (int i = levels.size()-1; i >= 0 && !remaining.isEmpty(); i--){
+                if (remaining.removeAll(levels.get(i))){
+                    lowest = i;
+                }
+            }
+            if (!remaining.isEmpty()){
+                return false;
+            }
+            for (int i = lowest; i < levels.size(); i++){
+                if (!this.satisfies(levels.get(i))){
+                    return false;
+                }
+            }
+            return this.satisfies(hardRules);
+        }
+
+        private boolean satisfies(Collection<Clause> clauses){
+            outerLoop: for (Clause c : clauses){
+                for (Literal l : c.literals()){
+                    if (l.isNegated() ? !this.model.contains(l.negation()) : this.model.contains(l)){
+                        continue outerLoop;
+                    }
+                }
+                return false;
+            }
+            return true;
+        }
+    }
+}
@@ -29,9 +29,9 @@ public class WeightLearner {
 
     private Collection<Clause> hardRules;
 
-    private List<DefaultRule> positiveExamples = new ArrayList<DefaultRule>();
+    private ExampleSet positiveExamples;
 
-    private List<DefaultRule> negativeExamples = new ArrayList<DefaultRule>();
+    private ExampleSet negativeExamples;
 
     private PriorityQueue<SearchNode> open;
 
@@ -42,8 +42,8 @@ public class WeightLearner {
     public WeightLearner(Collection<Clause> theory, Collection<Clause> hardRules, List<DefaultRule> positiveExamples, List<DefaultRule> negativeExamples){
         this.theory = theory;
         this.hardRules = hardRules;
-        this.positiveExamples = positiveExamples;
-        this.negativeExamples = negativeExamples;
+        this.positiveExamples = new ExampleSet(positiveExamples);
+        this.negativeExamples = new ExampleSet(negativeExamples);
     }
 
     public void initSearch(){
@@ -59,13 +59,13 @@ public class WeightLearner {
         if (this.hardRules != null) {
             auxPlt.addAll(this.hardRules, 1.0);
         }
-        List<DefaultRule> coveredPositiveExamples = LearningUtils.coveredExamples_parallelized(auxPlt, this.positiveExamples);
-        List<DefaultRule> coverablePositiveExamples = LearningUtils.coverableAndNotCoveredExamples(auxPlt, Sugar.listDifference(this.positiveExamples, coveredPositiveExamples));
-        List<DefaultRule> coveredNegativeExamples = LearningUtils.coveredExamples_parallelized(auxPlt, this.negativeExamples);
-        List<DefaultRule> coverableNegativeExamples = LearningUtils.coverableAndNotCoveredExamples(auxPlt, Sugar.listDifference(this.negativeExamples, coveredNegativeExamples));
+        BitSet coveredPositiveExamples = LearningUtils.coveredExamples_parallelized(auxPlt, this.positiveExamples);
+        BitSet coverablePositiveExamples = LearningUtils.coverableAndNotCoveredExamples(auxPlt, this.positiveExamples, difference(this.positiveExamples.all(), coveredPositiveExamples));
+        BitSet coveredNegativeExamples = LearningUtils.coveredExamples_parallelized(auxPlt, this.negativeExamples);
+        BitSet coverableNegativeExamples = LearningUtils.coverableAndNotCoveredExamples(auxPlt, this.negativeExamples, difference(this.negativeExamples.all(), coveredNegativeExamples));
         this.open.add(
                 new SearchNode(emptyPossibilisticTheory, Sugar.listFromCollections(this.theory), coveredPositiveExamples, coveredNegativeExamples, coverablePositiveExamples, coverableNegativeExamples,
-                    new CandidateConstructor(Sugar.listFromCollections(this.theory), coverablePositiveExamples)));
+                    new CandidateConstructor(Sugar.listFromCollections(this.theory), this.positiveExamples.distinct(coverablePositiveExamples))));
         this.bestSoFar = this.open.peek();
     }
 
@@ -89,15 +89,16 @@ public class WeightLearner {
                     if (this.hardRules != null) {
                         auxPLT.addAll(this.hardRules, 1.0);
                     }
-                    List<DefaultRule> coveredPositiveExamples = LearningUtils.coveredExamples_parallelized(auxPLT, current.coverablePositiveExamples);
-                    List<DefaultRule> coverablePositiveExamples = LearningUtils.coverableAndNotCoveredExamples(auxPLT, Sugar.listDifference(current.coverablePositiveExamples, coveredPositiveExamples));
-                    List<DefaultRule> coveredNegativeExamples = LearningUtils.coveredExamples_parallelized(auxPLT, current.coverableNegativeExamples);
-                    List<DefaultRule> coverableNegativeExamples = LearningUtils.coverableAndNotCoveredExamples(auxPLT, Sugar.listDifference(current.coverableNegativeExamples, coveredNegativeExamples));
+                    BitSet coveredPositiveExamples = LearningUtils.coveredExamples_parallelized(auxPLT, this.positiveExamples, current.coverablePositiveExamples);
+                    BitSet coverablePositiveExamples = LearningUtils.coverableAndNotCoveredExamples(auxPLT, this.positiveExamples, difference(current.coverablePositiveExamples, coveredPositiveExamples));
+                    BitSet coveredNegativeExamples = LearningUtils.coveredExamples_parallelized(auxPLT, this.negativeExamples, current.coverableNegativeExamples);
+                    BitSet coverableNegativeExamples = LearningUtils.coverableAndNotCoveredExamples(auxPLT, this.negativeExamples, difference(current.coverableNegativeExamples, coveredNegativeExamples));
+                    coveredPositiveExamples.or(current.coveredPositiveExamples);
+                    coveredNegativeExamples.or(current.coveredNegativeExamples);
                     SearchNode expandedNode = new SearchNode(newPLT, candidateExpansion,
-                            Sugar.listFromCollections(current.coveredPositiveExamples, coveredPositiveExamples),
-                            Sugar.listFromCollections(current.coveredNegativeExamples, coveredNegativeExamples),
+                            coveredPositiveExamples, coveredNegativeExamples,
                             coverablePositiveExamples, coverableNegativeExamples,
-                            new CandidateConstructor(candidateExpansion, coverablePositiveExamples));
+                            new CandidateConstructor(candidateExpansion, this.positiveExamples.distinct(coverablePositiveExamples)));
                     //System.out.println("<<START\n"+newPLT+", score = "+expandedNode.score()+", pos = "+expandedNode.coveredPositiveExamples+", neg = "+expandedNode.coverableNegativeExamples+"   END>>\n");
                     if (expandedNode.score() > this.bestSoFar.score() ||
                             (expandedNode.score() == this.bestSoFar.score() && expandedNode.stratification.weights().size() < this.bestSoFar.stratification.weights().size())) {
@@ -128,25 +129,36 @@ public class WeightLearner {
         return retVal;
     }
 
+    private static BitSet difference(BitSet a, BitSet b){
+        BitSet retVal = (BitSet)a.clone();
+        retVal.andNot(b);
+        return retVal;
+    }
+
     private class SearchNode {
 
         private PossibilisticLogicTheory stratification;
 
         private List<Clause> remainingTheory;
 
-        private List<DefaultRule> coveredPositiveExamples;
+        //indices of the examples in positiveExamples and negativeExamples
+        private BitSet coveredPositiveExamples;
+
+        private BitSet coverablePositiveExamples;
+
+        private BitSet coveredNegativeExamples;
 
-        private List<DefaultRule> coverablePositiveExamples;
+        private BitSet coverableNegativeExamples;
 
-        private List<DefaultRule> coveredNegativeExamples;
+        private int score;
 
-        private List<DefaultRule> coverableNegativeExamples;
+        private int scoreUpperBound;
 
         private CandidateConstructor candidateConstructor;
 
         private SearchNode(PossibilisticLogicTheory stratification, List<Clause> remainingTheory,
-                           List<DefaultRule> coveredPositiveExamples, List<DefaultRule> coveredNegativeExamples,
-                           List<DefaultRule> coverablePositiveExamples, List<DefaultRule> coverableNegativeExamples,
+                           BitSet coveredPositiveExamples, BitSet coveredNegativeExamples,
+                           BitSet coverablePositiveExamples, BitSet coverableNegativeExamples,
                            CandidateConstructor candidateconstructor){
             this.stratification = stratification;
             this.remainingTheory = remainingTheory;
@@ -155,10 +167,12 @@ public class WeightLearner {
             this.coveredNegativeExamples = coveredNegativeExamples;
             this.coverableNegativeExamples = coverableNegativeExamples;
             this.candidateConstructor = candidateconstructor;
+            this.score = positiveExamples.count(coveredPositiveExamples)-negativeExamples.count(coveredNegativeExamples);
+            this.scoreUpperBound = this.score+positiveExamples.count(coverablePositiveExamples);
         }
 
         private int score(){
-            return this.coveredPositiveExamples.size()-this.coveredNegativeExamples.size();
+            return this.score;
         }
 
         private int heuristic(){
@@ -166,7 +180,7 @@ public class WeightLearner {
         }
 
         private int scoreUpperBound(){
-            return this.coveredPositiveExamples.size()+this.coverablePositiveExamples.size()-coveredNegativeExamples.size();
+            return this.scoreUpperBound;
         }
 
     }